@@ -1,6 +1,9 @@
 package com.bnabd.bank.admin;
 
 import com.bnabd.bank.loan.LoanResponse;
+import com.bnabd.bank.rollup.SpendingRollupReport;
+import com.bnabd.bank.transaction.TransactionHistoryResponse;
+import com.bnabd.bank.transaction.TransactionSearchRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -26,4 +29,27 @@ public class AdminController {
         System.out.println(loanId);
         return service.changeLoanStatus(decision, loanId);
     }
+    // support staff look up a customer's transactions with the same filters the customer has
+    @GetMapping("/users/{userId}/transactions/search")
+    @PreAuthorize("hasAuthority('admin:read')")
+    public TransactionHistoryResponse searchTransactions(@PathVariable Integer userId, TransactionSearchRequest filters,
+                                                         @RequestParam(required = false) String cursor,
+                                                         @RequestParam(defaultValue = "20") int size){
+        return service.searchTransactions(userId, filters, cursor, size);
+    }
+    @GetMapping("/rollups/verify")
+    @PreAuthorize("hasAuthority('admin:read')")
+    public SpendingRollupReport verifyRollups(){
+        return service.verifyRollups();
+    }
+    @PostMapping("/rollups/rebuild")
+    @PreAuthorize("hasAuthority('admin:update')")
+    public SpendingRollupReport rebuildRollups(){
+        return service.rebuildRollups();
+    }
+    @PutMapping("/users/{userId}/balance-slots")
+    @PreAuthorize("hasAuthority('admin:update')")
+    public ResponseEntity<?> changeBalanceSlots(@PathVariable Integer userId, @RequestParam int count){
+        return service.changeBalanceSlots(userId, count);
+    }
 }
@@ -1,15 +1,24 @@
 package com.bnabd.bank.admin;
 
 import com.bnabd.bank.loan.*;
+import com.bnabd.bank.rollup.SpendingRollupJob;
+import com.bnabd.bank.rollup.SpendingRollupReport;
+import com.bnabd.bank.transaction.AccountLockManager;
 import com.bnabd.bank.transaction.Transaction;
-import com.bnabd.bank.transaction.TransactionRepository;
+import com.bnabd.bank.transaction.TransactionHistoryResponse;
+import com.bnabd.bank.transaction.TransactionRecorder;
+import com.bnabd.bank.transaction.TransactionSearchRequest;
+import com.bnabd.bank.transaction.TransactionService;
 import com.bnabd.bank.transaction.TransactionType;
 import com.bnabd.bank.user.User;
 import com.bnabd.bank.user.UserDTO;
 import com.bnabd.bank.user.UserRepository;
+import com.bnabd.bank.user.UserService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -23,7 +32,14 @@ import java.util.stream.Collectors;
 public class AdminService {
     private final LoanRepository loanRepository;
     private final UserRepository userRepository;
-    private final TransactionRepository transactionRepository;
+    private final TransactionRecorder transactionRecorder;
+    private final UserService userService;
+    private final AccountLockManager lockManager;
+    private final TransactionService transactionService;
+    private final SpendingRollupJob rollupJob;
+
+    @Value("${application.transactions.balance-slots.maximum}")
+    private int maxBalanceSlots;
 
     private LoanResponse convertToResponse(Loan loan) {
         return LoanResponse.builder()
@@ -49,12 +65,21 @@ public class AdminService {
                 user.getEmail(),
                 user.getPesel(),
                 user.getDob(),
-                user.getBalance(),
+                userService.balanceOf(user),
                 user.getAccountNumber(),
                 user.getHasLoan(),
                 user.getRole()
         );
     }
+    public TransactionHistoryResponse searchTransactions(Integer userId, TransactionSearchRequest filters, String cursor, int size) {
+        return transactionService.search(userId, filters, cursor, size);
+    }
+    public SpendingRollupReport verifyRollups() {
+        return rollupJob.verify();
+    }
+    public SpendingRollupReport rebuildRollups() {
+        return rollupJob.rebuild();
+    }
     public List<LoanResponseWrapper> findPendingLoans() {
         List<Loan> loans = loanRepository.findByStatus(LoanStatus.PENDING);
         return loans.stream()
@@ -62,17 +87,18 @@ public class AdminService {
                 .collect(Collectors.toList());
     }
 
+    @Transactional
     public ResponseEntity<?> changeLoanStatus(String decision, Integer loanId) {
         Optional<Loan> possibleLoan = loanRepository.findLoanById(loanId);
         if(possibleLoan.isEmpty()){
-            ResponseEntity.badRequest().body("Loan with that id was not found.");
+            return ResponseEntity.badRequest().body("Loan with that id was not found.");
         }
         Loan loan = possibleLoan.get();
         if(Objects.equals(decision, "ACCEPT")){
             loan.setStatus(LoanStatus.ACCEPTED);
             User user = loan.getUser();
             user.setHasLoan(true);
-            user.setBalance(user.getBalance().add(loan.getAmount()));
+            userService.addBalance(user, loan.getAmount());
             var transaction = Transaction.builder()
                     .type(TransactionType.LOAN)
                     .amount(loan.getAmount())
@@ -82,7 +108,7 @@ public class AdminService {
                     .build();
             userRepository.save(user);
             loanRepository.save(loan);
-            transactionRepository.save(transaction);
+            transactionRecorder.record(transaction);
             return ResponseEntity.ok().build();
         }else if(Objects.equals(decision, "REJECT")){
             loan.setStatus(LoanStatus.REJECTED);
@@ -94,4 +120,19 @@ public class AdminService {
         }
         return ResponseEntity.badRequest().body("Wrong decision type or loan not found.");
     }
+
+    public ResponseEntity<?> changeBalanceSlots(Integer userId, int balanceSlots) {
+        if(balanceSlots < 0 || balanceSlots > maxBalanceSlots){
+            return ResponseEntity.badRequest().body("Balance slots must be between 0 and " + maxBalanceSlots + ".");
+        }
+        Optional<User> user = userRepository.findById(userId);
+        if(user.isEmpty()){
+            return ResponseEntity.badRequest().body("User with that id was not found.");
+        }
+        // debits of the account wait while its slots are folded back
+        try (var locks = lockManager.lock(userId)) {
+            userService.changeBalanceSlots(user.get(), balanceSlots);
+        }
+        return ResponseEntity.ok().build();
+    }
 }
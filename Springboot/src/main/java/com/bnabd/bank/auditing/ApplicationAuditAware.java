@@ -1,7 +1,7 @@
 package com.bnabd.bank.auditing;
 
 
-import com.bnabd.bank.user.User;
+import com.bnabd.bank.user.UserPrincipal;
 import org.springframework.data.domain.AuditorAware;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -23,7 +23,7 @@ public class ApplicationAuditAware implements AuditorAware<Integer> {
             return Optional.empty();
         }
 
-        User userPrincipal = (User) authentication.getPrincipal();
+        UserPrincipal userPrincipal = (UserPrincipal) authentication.getPrincipal();
         return Optional.ofNullable(userPrincipal.getId());
     }
 }
@@ -25,9 +25,10 @@ public class AuthenticationController {
   }
   @PostMapping("/authenticate")
   public ResponseEntity<AuthenticationResponse> authenticate(
-      @RequestBody AuthenticationRequest request
+      @RequestBody AuthenticationRequest request,
+      HttpServletRequest servletRequest
   ) {
-    return ResponseEntity.ok(service.authenticate(request));
+    return ResponseEntity.ok(service.authenticate(request, servletRequest.getRemoteAddr()));
   }
 
   @PostMapping("/refresh-token")
@@ -1,18 +1,27 @@
 package com.bnabd.bank.auth;
 
 import com.bnabd.bank.config.JwtService;
+import com.bnabd.bank.config.PasswordHashingUnavailableException;
+import com.bnabd.bank.idempotency.IdempotencyKeyReusedException;
 import com.bnabd.bank.token.Token;
+import com.bnabd.bank.transaction.AccountBusyException;
+import com.bnabd.bank.transaction.TransferPipelineFullException;
 import com.bnabd.bank.token.TokenRepository;
 import com.bnabd.bank.token.TokenType;
+import com.bnabd.bank.user.AccountNumbers;
 import com.bnabd.bank.user.Role;
 import com.bnabd.bank.user.User;
 import com.bnabd.bank.user.UserDTO;
+import com.bnabd.bank.user.UserPrincipalCache;
 import com.bnabd.bank.user.UserRepository;
+import com.bnabd.bank.user.UserService;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.MalformedJwtException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -27,24 +36,73 @@ import org.springframework.web.bind.annotation.RequestBody;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.Optional;
 
 @ControllerAdvice
 class GlobalExceptionHandler {
 
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ResponseEntity<String> handleIllegalArgumentException(IllegalArgumentException e) {
+    return ResponseEntity.badRequest().body(e.getMessage());
+  }
+
   @ExceptionHandler(IllegalStateException.class)
   public ResponseEntity<String> handleIllegalStateException(IllegalStateException e) {
     return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
   }
+
+  @ExceptionHandler(PasswordHashingUnavailableException.class)
+  public ResponseEntity<String> handlePasswordHashingUnavailableException(PasswordHashingUnavailableException e) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, "1")
+        .body(e.getMessage());
+  }
+
+  @ExceptionHandler(AccountBusyException.class)
+  public ResponseEntity<String> handleAccountBusyException(AccountBusyException e) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, "1")
+        .body(e.getMessage());
+  }
+
+  @ExceptionHandler(TransferPipelineFullException.class)
+  public ResponseEntity<String> handleTransferPipelineFullException(TransferPipelineFullException e) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, "1")
+        .body(e.getMessage());
+  }
+
+  @ExceptionHandler(IdempotencyKeyReusedException.class)
+  public ResponseEntity<String> handleIdempotencyKeyReusedException(IdempotencyKeyReusedException e) {
+    return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+  }
+
+  @ExceptionHandler(QueryTimeoutException.class)
+  public ResponseEntity<String> handleQueryTimeoutException(QueryTimeoutException e) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .body("The query took too long, narrow it down and try again.");
+  }
+
+  @ExceptionHandler(LoginThrottledException.class)
+  public ResponseEntity<String> handleLoginThrottledException(LoginThrottledException e) {
+    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+        .body(e.getMessage());
+  }
 }
 @Service
 @RequiredArgsConstructor
 public class AuthenticationService {
   private final UserRepository repository;
+  private final UserPrincipalCache principalCache;
   private final TokenRepository tokenRepository;
   private final PasswordEncoder passwordEncoder;
   private final JwtService jwtService;
   private final AuthenticationManager authenticationManager;
+  private final LoginThrottle loginThrottle;
+  private final UserService userService;
 
   public AuthenticationResponse register(RegisterRequest request) {
     if (repository.findByEmail(request.getEmail()).isPresent()) {
@@ -59,8 +117,7 @@ public class AuthenticationService {
         .hasLoan(false)
         .password(passwordEncoder.encode(request.getPassword()))
         .balance(BigDecimal.valueOf(300))
-        .accountNumber(new java.util.Random().ints(26, 0, 10)
-                .mapToObj(Integer::toString).collect(java.util.stream.Collectors.joining()))
+        .accountNumber(newAccountNumber())
         .role(Role.USER)
         .build();
     var savedUser = repository.save(user);
@@ -74,7 +131,17 @@ public class AuthenticationService {
         .build();
   }
 
-  public AuthenticationResponse authenticate(AuthenticationRequest request) {
+  // legacy numbers were random digits and a few of them happen to carry a valid checksum
+  private String newAccountNumber() {
+    String accountNumber;
+    do {
+      accountNumber = AccountNumbers.fromSequence(repository.nextAccountNumber());
+    } while (repository.existsByAccountNumber(accountNumber));
+    return accountNumber;
+  }
+
+  public AuthenticationResponse authenticate(AuthenticationRequest request, String remoteAddress) {
+    loginThrottle.check(request.getEmail(), remoteAddress);
     authenticationManager.authenticate(
         new UsernamePasswordAuthenticationToken(
             request.getEmail(),
@@ -83,9 +150,9 @@ public class AuthenticationService {
     );
     var user = repository.findByEmail(request.getEmail())
         .orElseThrow();
+    revokeAllUserTokens(user);
     var jwtToken = jwtService.generateToken(user);
     var refreshToken = jwtService.generateRefreshToken(user);
-    revokeAllUserTokens(user);
     saveUserToken(user, jwtToken);
     return AuthenticationResponse.builder()
         .accessToken(jwtToken)
@@ -101,19 +168,15 @@ public class AuthenticationService {
         .tokenType(TokenType.BEARER)
         .expired(false)
         .revoked(false)
+        .createdAt(LocalDateTime.now(ZoneOffset.UTC))
         .build();
     tokenRepository.save(token);
   }
 
+  // every access token carries the epoch it was issued for, bumping it invalidates all of them at once
   private void revokeAllUserTokens(User user) {
-    var validUserTokens = tokenRepository.findAllValidTokenByUser(user.getId());
-    if (validUserTokens.isEmpty())
-      return;
-    validUserTokens.forEach(token -> {
-      token.setExpired(true);
-      token.setRevoked(true);
-    });
-    tokenRepository.saveAll(validUserTokens);
+    user.setTokenEpoch(repository.incrementTokenEpoch(user.getId()));
+    principalCache.evict(user.getEmail());
   }
 
   public void refreshToken(
@@ -127,13 +190,14 @@ public class AuthenticationService {
       return;
     }
     refreshToken = authHeader.substring(7);
-    userEmail = jwtService.extractUsername(refreshToken);
+    final Claims claims = jwtService.extractAllClaims(refreshToken);
+    userEmail = claims.getSubject();
     if (userEmail != null) {
       var user = this.repository.findByEmail(userEmail)
               .orElseThrow();
-      if (jwtService.isTokenValid(refreshToken, user)) {
-        var accessToken = jwtService.generateToken(user);
+      if (jwtService.isTokenValid(claims, user)) {
         revokeAllUserTokens(user);
+        var accessToken = jwtService.generateToken(user);
         saveUserToken(user, accessToken);
         var authResponse = AuthenticationResponse.builder()
                 .accessToken(accessToken)
@@ -154,14 +218,16 @@ public class AuthenticationService {
       }
 
       token = authHeader.substring(7);
-      userEmail = jwtService.extractUsername(token);
+      final Claims claims = jwtService.extractAllClaims(token);
+      userEmail = claims.getSubject();
       if (userEmail != null) {
         var user = this.repository.findByEmail(userEmail);
-        if (user.isPresent() && jwtService.isTokenValid(token, user.get())) {
+        if (user.isPresent() && jwtService.isTokenValid(claims, user.get())) {
           if (!passwordEncoder.matches(request.getPassword(), user.get().getPassword())) {
             return new ResponseEntity<>("Invalid password.", HttpStatus.UNAUTHORIZED);
           }else{
             repository.delete(user.get());
+            principalCache.evict(user.get().getEmail());
             return ResponseEntity.ok("Deleted.");
           }
 
@@ -181,29 +247,6 @@ public class AuthenticationService {
     return repository.findByEmail(email);
   }
 
-  public Integer getUserIdFromEmail(String email) {
-    return repository.findByEmail(email)
-            .map(User::getId)
-            .orElse(null);
-  }
-
-  public Optional<User> findUserByToken(String token) {
-    final String userEmail;
-    User user;
-    if (token == null || !token.startsWith("Bearer ")) {
-      return Optional.empty();
-    }
-    token = token.substring(7);
-    userEmail = jwtService.extractUsername(token);
-    if (userEmail != null) {
-      user = this.repository.findByEmail(userEmail)
-              .orElseThrow();
-      if (jwtService.isTokenValid(token, user)) {
-        return Optional.of(user);
-      }
-    }
-    return Optional.empty();
-  }
   public ResponseEntity<Object> findUserDTOByToken(HttpServletRequest request) {
     try {
       final String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
@@ -215,11 +258,12 @@ public class AuthenticationService {
       }
 
       token = authHeader.substring(7);
-      userEmail = jwtService.extractUsername(token);
+      final Claims claims = jwtService.extractAllClaims(token);
+      userEmail = claims.getSubject();
 
       if (userEmail != null) {
         var user = this.repository.findByEmail(userEmail);
-        if (user.isPresent() && jwtService.isTokenValid(token, user.get())) {
+        if (user.isPresent() && jwtService.isTokenValid(claims, user.get())) {
           return ResponseEntity.ok(convertToDTO(user.get()));
         } else {
           return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new ErrorResponse("Couldn't authenticate user."));
@@ -239,7 +283,7 @@ public class AuthenticationService {
             user.getEmail(),
             user.getPesel(),
             user.getDob(),
-            user.getBalance(),
+            userService.balanceOf(user),
             user.getAccountNumber(),
             user.getHasLoan(),
             user.getRole()
@@ -0,0 +1,112 @@
+package com.bnabd.bank.auth;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// rejects sign-in attempts before any password hashing once an email or client address runs dry
+@Component
+public class LoginThrottle {
+
+  @Value("${application.security.login-throttle.email.capacity}")
+  private int emailCapacity;
+  @Value("${application.security.login-throttle.email.refill-period}")
+  private Duration emailRefillPeriod;
+  @Value("${application.security.login-throttle.address.capacity}")
+  private int addressCapacity;
+  @Value("${application.security.login-throttle.address.refill-period}")
+  private Duration addressRefillPeriod;
+  @Value("${application.security.login-throttle.maximum-size}")
+  private long maximumSize;
+  @Value("${application.security.login-throttle.idle-timeout}")
+  private Duration idleTimeout;
+
+  private Cache<String, TokenBucket> buckets;
+
+  @PostConstruct
+  void init() {
+    buckets = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterAccess(idleTimeout)
+        .build();
+  }
+
+  public void check(String email, String remoteAddress) {
+    final long now = System.nanoTime();
+    var emailKey = "email:" + String.valueOf(email).toLowerCase(Locale.ROOT);
+    var emailBucket = buckets.get(emailKey, key -> new TokenBucket(emailCapacity, emailRefillPeriod, now));
+    var addressBucket = buckets.get("address:" + remoteAddress,
+        key -> new TokenBucket(addressCapacity, addressRefillPeriod, now));
+    // an attempt refused by one bucket must not use up the other, or a flood from one address
+    // would lock the account's owner out as well
+    long waitNanos = Math.max(emailBucket.waitNanos(now), addressBucket.waitNanos(now));
+    if (waitNanos == 0) {
+      waitNanos = emailBucket.tryConsume(now);
+    }
+    if (waitNanos == 0) {
+      waitNanos = addressBucket.tryConsume(now);
+      if (waitNanos > 0) {
+        // a concurrent attempt took the address's last token in between
+        emailBucket.refund();
+      }
+    }
+    if (waitNanos > 0) {
+      throw new LoginThrottledException(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos)));
+    }
+  }
+
+  // a full bucket refills completely over one refill period
+  static final class TokenBucket {
+
+    private record State(double tokens, long updatedAt) {
+    }
+
+    private final int capacity;
+    private final double tokensPerNano;
+    private final AtomicReference<State> state;
+
+    TokenBucket(int capacity, Duration refillPeriod, long now) {
+      this.capacity = capacity;
+      this.tokensPerNano = (double) capacity / refillPeriod.toNanos();
+      this.state = new AtomicReference<>(new State(capacity, now));
+    }
+
+    // same answer as tryConsume, without taking the token
+    long waitNanos(long now) {
+      return waitNanos(tokensAt(state.get(), now));
+    }
+
+    // returns 0 when a token was taken, otherwise the nanos until the next one is available
+    long tryConsume(long now) {
+      while (true) {
+        State current = state.get();
+        double tokens = tokensAt(current, now);
+        if (tokens < 1) {
+          return waitNanos(tokens);
+        }
+        if (state.compareAndSet(current, new State(tokens - 1, now))) {
+          return 0;
+        }
+      }
+    }
+
+    void refund() {
+      state.updateAndGet(current -> new State(Math.min(capacity, current.tokens() + 1), current.updatedAt()));
+    }
+
+    private double tokensAt(State current, long now) {
+      return Math.min(capacity, current.tokens() + Math.max(0, now - current.updatedAt()) * tokensPerNano);
+    }
+
+    private long waitNanos(double tokens) {
+      return tokens < 1 ? (long) Math.ceil((1 - tokens) / tokensPerNano) : 0;
+    }
+  }
+}
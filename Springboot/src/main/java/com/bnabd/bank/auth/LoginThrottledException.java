@@ -0,0 +1,14 @@
+package com.bnabd.bank.auth;
+
+import lombok.Getter;
+
+@Getter
+public class LoginThrottledException extends RuntimeException {
+
+  private final long retryAfterSeconds;
+
+  public LoginThrottledException(long retryAfterSeconds) {
+    super("Too many sign-in attempts, try again later.");
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+}
@@ -0,0 +1,97 @@
+package com.bnabd.bank.config;
+
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// with virtual threads nothing caps concurrent requests any more, so callers beyond the pool size
+// park here in arrival order instead of piling onto the pool's own hand-off
+public class BoundedDataSource extends DelegatingDataSource {
+
+  private final Semaphore permits;
+  private final long timeoutMillis;
+
+  public BoundedDataSource(DataSource target, int maxConnections, long timeoutMillis) {
+    super(target);
+    this.permits = new Semaphore(maxConnections, true);
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    acquire();
+    try {
+      return bounded(super.getConnection());
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    acquire();
+    try {
+      return bounded(super.getConnection(username, password));
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  public int getWaiting() {
+    return permits.getQueueLength();
+  }
+
+  private void acquire() throws SQLException {
+    try {
+      if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new SQLTransientConnectionException("No database connection available within " + timeoutMillis + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+    }
+  }
+
+  // the permit goes back on the first close, further closes are passed through untouched
+  private Connection bounded(Connection target) {
+    var released = new AtomicBoolean();
+    return (Connection) Proxy.newProxyInstance(
+        ConnectionProxy.class.getClassLoader(),
+        new Class<?>[] {ConnectionProxy.class},
+        (proxy, method, args) -> switch (method.getName()) {
+          case "getTargetConnection" -> target;
+          case "equals" -> proxy == args[0];
+          case "hashCode" -> System.identityHashCode(proxy);
+          case "close" -> {
+            try {
+              yield invoke(target, method, args);
+            } finally {
+              if (released.compareAndSet(false, true)) {
+                permits.release();
+              }
+            }
+          }
+          default -> invoke(target, method, args);
+        });
+  }
+
+  private static Object invoke(Connection target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getTargetException();
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package com.bnabd.bank.config;
 
-import com.bnabd.bank.token.TokenRepository;
+import com.bnabd.bank.token.TokenRevocationRegistry;
+import com.bnabd.bank.user.UserPrincipalCache;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -23,7 +25,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
   private final JwtService jwtService;
   private final UserDetailsService userDetailsService;
-  private final TokenRepository tokenRepository;
+  private final TokenRevocationRegistry revocationRegistry;
+  private final UserPrincipalCache principalCache;
 
   @Override
   protected void doFilterInternal(
@@ -43,13 +46,17 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
       return;
     }
     jwt = authHeader.substring(7);
-    userEmail = jwtService.extractUsername(jwt);
+    final Claims claims = jwtService.extractAllClaims(jwt);
+    userEmail = claims.getSubject();
     if (userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null) {
       UserDetails userDetails = this.userDetailsService.loadUserByUsername(userEmail);
-      var isTokenValid = tokenRepository.findByToken(jwt)
-          .map(t -> !t.isExpired() && !t.isRevoked())
-          .orElse(false);
-      if (jwtService.isTokenValid(jwt, userDetails) && isTokenValid) {
+      // the cached principal predates the token, reload it instead of rejecting a fresh login
+      if (jwtService.isTokenEpochAhead(claims, userDetails)) {
+        principalCache.evict(userEmail);
+        userDetails = this.userDetailsService.loadUserByUsername(userEmail);
+      }
+      var isTokenValid = !revocationRegistry.isRevoked(jwt);
+      if (jwtService.isAccessTokenValid(claims, userDetails) && isTokenValid) {
         UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
             userDetails,
             null,
@@ -1,10 +1,17 @@
 package com.bnabd.bank.config;
 
+import com.bnabd.bank.token.TokenDigest;
+import com.bnabd.bank.user.TokenEpochHolder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
@@ -13,17 +20,59 @@ import java.security.Key;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Service
 public class JwtService {
 
+  private static final String TOKEN_TYPE_CLAIM = "token_type";
+  private static final String ACCESS_TOKEN = "access";
+  private static final String REFRESH_TOKEN = "refresh";
+  private static final String TOKEN_EPOCH_CLAIM = "epoch";
+
   @Value("${application.security.jwt.secret-key}")
   private String secretKey;
   @Value("${application.security.jwt.expiration}")
   private long jwtExpiration;
   @Value("${application.security.jwt.refresh-token.expiration}")
   private long refreshExpiration;
+  @Value("${application.security.jwt.cache.maximum-size}")
+  private long cacheMaximumSize;
+
+  private Key signInKey;
+  private JwtParser parser;
+  // verified claims keyed by token digest, each entry dropped when its token expires
+  private Cache<String, Claims> verifiedTokens;
+
+  @PostConstruct
+  void init() {
+    signInKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secretKey));
+    parser = Jwts
+        .parserBuilder()
+        .setSigningKey(signInKey)
+        .build();
+    verifiedTokens = Caffeine.newBuilder()
+        .maximumSize(cacheMaximumSize)
+        .expireAfter(new Expiry<String, Claims>() {
+          @Override
+          public long expireAfterCreate(String digest, Claims claims, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(claims.getExpiration().getTime() - System.currentTimeMillis());
+          }
+
+          @Override
+          public long expireAfterUpdate(String digest, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+
+          @Override
+          public long expireAfterRead(String digest, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .build();
+  }
 
   public String extractUsername(String token) {
     return extractClaim(token, Claims::getSubject);
@@ -42,13 +91,20 @@ public class JwtService {
       Map<String, Object> extraClaims,
       UserDetails userDetails
   ) {
-    return buildToken(extraClaims, userDetails, jwtExpiration);
+    Map<String, Object> claims = new HashMap<>(extraClaims);
+    claims.put(TOKEN_TYPE_CLAIM, ACCESS_TOKEN);
+    if (userDetails instanceof TokenEpochHolder holder) {
+      claims.put(TOKEN_EPOCH_CLAIM, holder.getTokenEpoch());
+    }
+    return buildToken(claims, userDetails, jwtExpiration);
   }
 
   public String generateRefreshToken(
       UserDetails userDetails
   ) {
-    return buildToken(new HashMap<>(), userDetails, refreshExpiration);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put(TOKEN_TYPE_CLAIM, REFRESH_TOKEN);
+    return buildToken(claims, userDetails, refreshExpiration);
   }
 
   private String buildToken(
@@ -62,34 +118,56 @@ public class JwtService {
             .setSubject(userDetails.getUsername())
             .setIssuedAt(new Date(System.currentTimeMillis()))
             .setExpiration(new Date(System.currentTimeMillis() + expiration))
-            .signWith(getSignInKey(), SignatureAlgorithm.HS256)
+            .signWith(signInKey, SignatureAlgorithm.HS256)
             .compact();
   }
 
   public boolean isTokenValid(String token, UserDetails userDetails) {
-    final String username = extractUsername(token);
-    return (username.equals(userDetails.getUsername())) && !isTokenExpired(token);
+    return isTokenValid(extractAllClaims(token), userDetails);
   }
 
-  private boolean isTokenExpired(String token) {
-    return extractExpiration(token).before(new Date());
+  public boolean isTokenValid(Claims claims, UserDetails userDetails) {
+    final String username = claims.getSubject();
+    return (username.equals(userDetails.getUsername())) && !isTokenExpired(claims);
   }
 
-  private Date extractExpiration(String token) {
-    return extractClaim(token, Claims::getExpiration);
+  // refresh tokens are never stored in the token table, so they must not pass as access tokens
+  public boolean isAccessTokenValid(Claims claims, UserDetails userDetails) {
+    return ACCESS_TOKEN.equals(claims.get(TOKEN_TYPE_CLAIM, String.class))
+        && isTokenValid(claims, userDetails)
+        && isTokenEpochCurrent(claims, userDetails);
   }
 
-  private Claims extractAllClaims(String token) {
-    return Jwts
-        .parserBuilder()
-        .setSigningKey(getSignInKey())
-        .build()
-        .parseClaimsJws(token)
-        .getBody();
+  // the token was issued after userDetails was loaded, e.g. by a login on another instance
+  public boolean isTokenEpochAhead(Claims claims, UserDetails userDetails) {
+    if (userDetails instanceof TokenEpochHolder holder) {
+      Integer epoch = claims.get(TOKEN_EPOCH_CLAIM, Integer.class);
+      return epoch != null && holder.getTokenEpoch() != null && epoch > holder.getTokenEpoch();
+    }
+    return false;
+  }
+
+  private boolean isTokenEpochCurrent(Claims claims, UserDetails userDetails) {
+    if (userDetails instanceof TokenEpochHolder holder) {
+      return Objects.equals(claims.get(TOKEN_EPOCH_CLAIM, Integer.class), holder.getTokenEpoch());
+    }
+    return true;
+  }
+
+  private boolean isTokenExpired(Claims claims) {
+    return claims.getExpiration().before(new Date());
   }
 
-  private Key getSignInKey() {
-    byte[] keyBytes = Decoders.BASE64.decode(secretKey);
-    return Keys.hmacShaKeyFor(keyBytes);
+  // parses and verifies the signature once, repeated presentations are served from the cache
+  public Claims extractAllClaims(String token) {
+    final String digest = TokenDigest.of(token);
+    Claims claims = verifiedTokens.getIfPresent(digest);
+    if (claims == null) {
+      claims = parser
+          .parseClaimsJws(token)
+          .getBody();
+      verifiedTokens.put(digest, claims);
+    }
+    return claims;
   }
 }
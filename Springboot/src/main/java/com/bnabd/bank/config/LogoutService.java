@@ -1,6 +1,7 @@
 package com.bnabd.bank.config;
 
 import com.bnabd.bank.token.TokenRepository;
+import com.bnabd.bank.token.TokenRevocationRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
@@ -14,6 +15,7 @@ import org.springframework.stereotype.Service;
 public class LogoutService implements LogoutHandler {
 
   private final TokenRepository tokenRepository;
+  private final TokenRevocationRegistry revocationRegistry;
 
   @Override
   public void logout(
@@ -27,6 +29,7 @@ public class LogoutService implements LogoutHandler {
       return;
     }
     jwt = authHeader.substring(7);
+    revocationRegistry.revoke(jwt);
     var storedToken = tokenRepository.findByToken(jwt)
         .orElse(null);
     if (storedToken != null) {
@@ -0,0 +1,12 @@
+package com.bnabd.bank.config;
+
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+
+// DaoAuthenticationProvider wraps whatever it does not know while it looks up a user, that includes the hash it
+// runs for unknown emails; an InternalAuthenticationServiceException is passed through as it is and still reaches the 503 handler
+public class PasswordHashingUnavailableException extends InternalAuthenticationServiceException {
+
+  public PasswordHashingUnavailableException() {
+    super("Too many requests are waiting for a password check, try again shortly.");
+  }
+}
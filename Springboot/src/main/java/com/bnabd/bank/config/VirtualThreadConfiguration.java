@@ -0,0 +1,85 @@
+package com.bnabd.bank.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+// spring.threads.virtual.enabled runs requests, scheduled jobs and async work on virtual threads;
+// the database is then the resource that has to be rationed
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+  private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+  private static final int PINNED_STACK_DEPTH = 20;
+
+  // sized from the pool so there is never a permit without a connection behind it
+  @Bean
+  static BeanPostProcessor boundedDataSourcePostProcessor() {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof HikariDataSource hikari) {
+          // fills in the pool's defaults, an unset maximum pool size reads as -1 until the pool starts
+          hikari.validate();
+          return new BoundedDataSource(hikari, hikari.getMaximumPoolSize(), hikari.getConnectionTimeout());
+        }
+        return bean;
+      }
+    };
+  }
+
+  // -Djdk.tracePinnedThreads only exists on the command line of the Maven profile, this reports pinning from the
+  // packaged jar as well: every pin longer than the threshold is counted and logged with the stack that caused it
+  @Bean(destroyMethod = "close")
+  RecordingStream pinnedVirtualThreadMonitor(
+      MeterRegistry meterRegistry,
+      @Value("${application.virtual-threads.pinned-threshold}") Duration threshold
+  ) {
+    var pinned = Counter.builder("jvm.threads.virtual.pinned").register(meterRegistry);
+    var stream = new RecordingStream();
+    stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+    stream.onEvent(PINNED_EVENT, event -> {
+      pinned.increment();
+      log.warn("Virtual thread pinned its carrier for {} ms at\n{}", event.getDuration().toMillis(), stackOf(event));
+    });
+    stream.startAsync();
+    return stream;
+  }
+
+  private static String stackOf(RecordedEvent event) {
+    if (event.getStackTrace() == null) {
+      return "\t(no stack trace)";
+    }
+    return event.getStackTrace().getFrames().stream()
+        .limit(PINNED_STACK_DEPTH)
+        .map(frame -> "\tat " + frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+            + ":" + frame.getLineNumber())
+        .collect(Collectors.joining("\n"));
+  }
+
+  @Bean
+  MeterBinder boundedDataSourceMetrics(DataSource dataSource) {
+    return registry -> {
+      if (dataSource instanceof BoundedDataSource bounded) {
+        Gauge.builder("datasource.connections.waiting", bounded, BoundedDataSource::getWaiting)
+            .register(registry);
+      }
+    };
+  }
+}
@@ -0,0 +1,8 @@
+package com.bnabd.bank.idempotency;
+
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException() {
+        super("Idempotency-Key was already used for a different request.");
+    }
+}
@@ -0,0 +1,45 @@
+package com.bnabd.bank.idempotency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+// keys are only honoured for the ttl, older rows are deleted in short batches
+@Slf4j
+@Component
+public class IdempotencyPurgeJob {
+    private final IdempotencyRepository repository;
+    private final Counter purgedRows;
+
+    @Value("${application.idempotency.ttl}")
+    private Duration ttl;
+    @Value("${application.idempotency.purge.batch-size}")
+    private int batchSize;
+
+    public IdempotencyPurgeJob(IdempotencyRepository repository, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.purgedRows = Counter.builder("idempotency.purge.purged").register(meterRegistry);
+    }
+
+    @Scheduled(
+            initialDelayString = "${application.idempotency.purge.interval}",
+            fixedDelayString = "${application.idempotency.purge.interval}"
+    )
+    public void purge() {
+        final var cutoff = Instant.now().minus(ttl);
+        int purged = 0;
+        int deleted;
+        do {
+            deleted = repository.deleteCreatedBefore(cutoff, batchSize);
+            purged += deleted;
+        } while (deleted == batchSize);
+        purgedRows.increment(purged);
+        log.info("Idempotency purge removed {} keys created before {}", purged, cutoff);
+    }
+}
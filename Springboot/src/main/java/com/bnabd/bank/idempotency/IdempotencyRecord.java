@@ -0,0 +1,52 @@
+package com.bnabd.bank.idempotency;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+// first use of an Idempotency-Key and, once finished, the response it produced
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "idempotency_key", indexes = @Index(name = "idx_idempotency_key_created_at", columnList = "created_at"))
+@IdClass(IdempotencyRecord.Key.class)
+public class IdempotencyRecord {
+    @Id
+    @Column(name = "user_id")
+    private Integer userId;
+
+    @Id
+    @Column(name = "idempotency_key", length = 64)
+    private String idempotencyKey;
+
+    // what the key was first used for, a different request under the same key is refused
+    @Column(nullable = false)
+    private String fingerprint;
+
+    // null while the original request is still running
+    private Integer responseStatus;
+
+    @Column(length = 100)
+    private String responseContentType;
+
+    @Column(columnDefinition = "text")
+    private String responseBody;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Integer userId;
+        private String idempotencyKey;
+    }
+}
@@ -0,0 +1,38 @@
+package com.bnabd.bank.idempotency;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface IdempotencyRepository extends JpaRepository<IdempotencyRecord, IdempotencyRecord.Key> {
+
+    // 1 when this call owns the key, 0 when an earlier request already claimed it
+    @Transactional
+    @Modifying
+    @Query(value = """
+            insert into idempotency_key (user_id, idempotency_key, fingerprint, created_at)
+            values (:userId, :idempotencyKey, :fingerprint, :createdAt)
+            on conflict do nothing
+            """, nativeQuery = true)
+    int claim(Integer userId, String idempotencyKey, String fingerprint, Instant createdAt);
+
+    @Transactional
+    @Modifying
+    @Query("update IdempotencyRecord r set r.responseStatus = :responseStatus, "
+            + "r.responseContentType = :responseContentType, r.responseBody = :responseBody "
+            + "where r.userId = :userId and r.idempotencyKey = :idempotencyKey")
+    int complete(Integer userId, String idempotencyKey, Integer responseStatus, String responseContentType,
+                 String responseBody);
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            delete from idempotency_key where ctid in (
+                select ctid from idempotency_key where created_at < :cutoff limit :batchSize for update skip locked
+            )
+            """, nativeQuery = true)
+    int deleteCreatedBefore(Instant cutoff, int batchSize);
+}
@@ -0,0 +1,121 @@
+package com.bnabd.bank.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+// runs a money movement at most once per Idempotency-Key, repeats get the first response back
+@Service
+@RequiredArgsConstructor
+public class IdempotencyService {
+    private static final int MAX_KEY_LENGTH = 64;
+
+    private final IdempotencyRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${application.idempotency.ttl}")
+    private Duration ttl;
+    @Value("${application.idempotency.cache.maximum-size}")
+    private long cacheMaximumSize;
+
+    // finished keys of recent requests, most retries are answered from here without touching the database
+    private Cache<String, IdempotencyRecord> recent;
+
+    @PostConstruct
+    void init() {
+        recent = Caffeine.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    public ResponseEntity<?> execute(Integer userId, String key, String fingerprint, Supplier<ResponseEntity<?>> action) {
+        if(key == null){
+            return action.get();
+        }
+        if(key.isBlank() || key.length() > MAX_KEY_LENGTH){
+            throw new IllegalArgumentException("Idempotency-Key must have between 1 and " + MAX_KEY_LENGTH + " characters.");
+        }
+        String cacheKey = userId + ":" + key;
+        IdempotencyRecord cached = recent.getIfPresent(cacheKey);
+        if(cached != null){
+            return replay(cached, fingerprint);
+        }
+        // claim, work and result commit together with the balance change, so a crash or an exception
+        // leaves no half-finished key behind and the client's retry simply runs it again.
+        // A concurrent retry blocks on the claimed row until the first request commits or rolls back.
+        // Account locks the work needs are taken by the caller before this, so they last until the commit
+        var outcome = transactionTemplate.execute(status -> {
+            if(repository.claim(userId, key, fingerprint, Instant.now()) == 0){
+                IdempotencyRecord existing = repository.findById(new IdempotencyRecord.Key(userId, key))
+                        .orElseThrow(() -> new IllegalStateException("Request with this Idempotency-Key is still being processed."));
+                return new Outcome(existing, null);
+            }
+            ResponseEntity<?> response = action.get();
+            IdempotencyRecord record = completed(userId, key, fingerprint, response);
+            repository.complete(userId, key, record.getResponseStatus(), record.getResponseContentType(), record.getResponseBody());
+            return new Outcome(record, response);
+        });
+        if(outcome.record().getResponseStatus() != null){
+            recent.put(cacheKey, outcome.record());
+        }
+        return outcome.response() != null ? outcome.response() : replay(outcome.record(), fingerprint);
+    }
+
+    // the body is kept as it went over the wire, so a replay is byte for byte the first response
+    private IdempotencyRecord completed(Integer userId, String key, String fingerprint, ResponseEntity<?> response) {
+        Object body = response.getBody();
+        String contentType = null;
+        String serialized = null;
+        if(body instanceof String text){
+            MediaType mediaType = response.getHeaders().getContentType();
+            contentType = (mediaType != null ? mediaType : MediaType.TEXT_PLAIN).toString();
+            serialized = text;
+        }else if(body != null){
+            contentType = MediaType.APPLICATION_JSON_VALUE;
+            try {
+                serialized = objectMapper.writeValueAsString(body);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Response could not be stored for its Idempotency-Key.", e);
+            }
+        }
+        return IdempotencyRecord.builder()
+                .userId(userId)
+                .idempotencyKey(key)
+                .fingerprint(fingerprint)
+                .responseStatus(response.getStatusCode().value())
+                .responseContentType(contentType)
+                .responseBody(serialized)
+                .build();
+    }
+
+    private ResponseEntity<?> replay(IdempotencyRecord record, String fingerprint) {
+        if(!record.getFingerprint().equals(fingerprint)){
+            throw new IdempotencyKeyReusedException();
+        }
+        if(record.getResponseStatus() == null){
+            throw new IllegalStateException("Request with this Idempotency-Key is still being processed.");
+        }
+        var response = ResponseEntity.status(record.getResponseStatus());
+        if(record.getResponseContentType() != null){
+            response.contentType(MediaType.parseMediaType(record.getResponseContentType()));
+        }
+        return response.body(record.getResponseBody());
+    }
+
+    private record Outcome(IdempotencyRecord record, ResponseEntity<?> response) {
+    }
+}
@@ -17,7 +17,7 @@ import java.math.BigDecimal;
 @Table(name = "loans")
 public class Loan {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue
     private Integer id;
 
     private LoanStatus status;
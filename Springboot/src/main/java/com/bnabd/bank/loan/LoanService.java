@@ -1,7 +1,8 @@
 package com.bnabd.bank.loan;
 
+import com.bnabd.bank.transaction.AccountLockManager;
 import com.bnabd.bank.transaction.Transaction;
-import com.bnabd.bank.transaction.TransactionRepository;
+import com.bnabd.bank.transaction.TransactionRecorder;
 import com.bnabd.bank.transaction.TransactionType;
 import com.bnabd.bank.user.User;
 import com.bnabd.bank.user.UserRepository;
@@ -9,6 +10,7 @@ import com.bnabd.bank.user.UserService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -21,7 +23,9 @@ public class LoanService {
     private final UserService userService;
     private final LoanRepository repository;
     private final UserRepository userRepository;
-    private final TransactionRepository transactionRepository;
+    private final TransactionRecorder transactionRecorder;
+    private final AccountLockManager lockManager;
+    private final TransactionTemplate transactionTemplate;
 
     private LoanResponse convertToResponse(Loan loan) {
         return LoanResponse.builder()
@@ -78,15 +82,21 @@ public class LoanService {
         return ResponseEntity.ok().build();
     }
 
-    public ResponseEntity<?> payRate(User user, Integer userId) {
-        Loan userLoan = repository.findTop1ByUserIdOrderByIdDesc(userId);
+    // the account lock keeps two payments from reading the same payment left
+    public ResponseEntity<?> payRate(User user) {
+        try (var locks = lockManager.lock(user.getId())) {
+            return transactionTemplate.execute(status -> applyRatePayment(user));
+        }
+    }
+
+    private ResponseEntity<?> applyRatePayment(User user) {
+        Loan userLoan = repository.findTop1ByUserIdOrderByIdDesc(user.getId());
         if(userLoan.getStatus() != LoanStatus.ACCEPTED)
             return ResponseEntity.badRequest().body("This loan cannot be paid off.");
-        if(user.getBalance().compareTo(userLoan.getMonthlyRate()) < 0)
-            return ResponseEntity.badRequest().body("Insufficient balance to pay monthly rate.");
         if(userLoan.getMonthlyRate().compareTo(userLoan.getPaymentLeft()) > 0)
             return ResponseEntity.badRequest().body("Monthly rate is bigger than required payment left.");
-        userService.subtractBalance(user, userLoan.getMonthlyRate());
+        if(!userService.subtractBalance(user, userLoan.getMonthlyRate()))
+            return ResponseEntity.badRequest().body("Insufficient balance to pay monthly rate.");
         var transaction = Transaction.builder()
                 .type(TransactionType.MONTHLY_RATE)
                 .amount(userLoan.getMonthlyRate())
@@ -94,7 +104,7 @@ public class LoanService {
                 .createdAt(LocalDateTime.now(ZoneId.of("UTC+2")))
                 .description("Zapłacono miesięczną ratę pożyczki w wysokości " + userLoan.getMonthlyRate() + " PLN.")
                 .build();
-        transactionRepository.save(transaction);
+        transactionRecorder.record(transaction);
         userLoan.setPaymentLeft(userLoan.getPaymentLeft().subtract(userLoan.getMonthlyRate()));
         if(userLoan.getPaymentLeft().compareTo(BigDecimal.valueOf(0.01)) < 0){
             user.setHasLoan(false);
@@ -105,15 +115,20 @@ public class LoanService {
         return ResponseEntity.ok().build();
     }
 
-    public ResponseEntity<?> repayment(User user, Integer userId, BigDecimal amount) {
-        Loan userLoan = repository.findTop1ByUserIdOrderByIdDesc(userId);
+    public ResponseEntity<?> repayment(User user, BigDecimal amount) {
+        try (var locks = lockManager.lock(user.getId())) {
+            return transactionTemplate.execute(status -> applyRepayment(user, amount));
+        }
+    }
+
+    private ResponseEntity<?> applyRepayment(User user, BigDecimal amount) {
+        Loan userLoan = repository.findTop1ByUserIdOrderByIdDesc(user.getId());
         if(userLoan.getStatus() != LoanStatus.ACCEPTED)
             return ResponseEntity.badRequest().body("This loan cannot be paid off.");
-        if(user.getBalance().compareTo(amount) < 0)
-            return ResponseEntity.badRequest().body("Insufficient balance to pay this amount of loan repayment.");
         if(amount.compareTo(userLoan.getPaymentLeft()) > 0)
             return ResponseEntity.badRequest().body("This loan repayment is bigger than required payment left");
-        userService.subtractBalance(user, amount);
+        if(!userService.subtractBalance(user, amount))
+            return ResponseEntity.badRequest().body("Insufficient balance to pay this amount of loan repayment.");
         var transaction = Transaction.builder()
                 .type(TransactionType.LOAN_PAYMENT)
                 .amount(amount)
@@ -121,7 +136,7 @@ public class LoanService {
                 .createdAt(LocalDateTime.now(ZoneId.of("UTC+2")))
                 .description("Spłacono " + amount + " PLN w ramach pożyczki.")
                 .build();
-        transactionRepository.save(transaction);
+        transactionRecorder.record(transaction);
         userLoan.setPaymentLeft(userLoan.getPaymentLeft().subtract(amount));
         if(userLoan.getPaymentLeft().compareTo(BigDecimal.valueOf(0.01)) < 0){
             user.setHasLoan(false);
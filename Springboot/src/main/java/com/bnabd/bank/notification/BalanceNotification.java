@@ -0,0 +1,6 @@
+package com.bnabd.bank.notification;
+
+import java.math.BigDecimal;
+
+public record BalanceNotification(BigDecimal balance) {
+}
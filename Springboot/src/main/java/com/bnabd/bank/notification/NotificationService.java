@@ -0,0 +1,240 @@
+package com.bnabd.bank.notification;
+
+import com.bnabd.bank.transaction.TransactionResponse;
+import com.bnabd.bank.transaction.TransactionsRecordedEvent;
+import com.bnabd.bank.user.AccountBalance;
+import com.bnabd.bank.user.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+// open event streams per user; an idle stream is an async request and holds no thread
+@Slf4j
+@Service
+public class NotificationService implements DisposableBean {
+    private final UserRepository userRepository;
+    private final Map<Integer, List<Stream>> streams = new ConcurrentHashMap<>();
+    // every write to a client happens here, committing threads and the scheduler only queue events
+    private final ThreadPoolExecutor executor;
+    private final Counter dropped;
+    private final Counter stalled;
+
+    @Value("${application.notifications.timeout}")
+    private Duration timeout;
+    @Value("${application.notifications.max-streams-per-user}")
+    private int maxStreamsPerUser;
+    @Value("${application.notifications.send-timeout}")
+    private Duration sendTimeout;
+    @Value("${application.notifications.max-pending-events}")
+    private int maxPendingEvents;
+
+    public NotificationService(UserRepository userRepository, MeterRegistry meterRegistry,
+                               @Value("${application.notifications.senders}") int senders,
+                               @Value("${application.notifications.queue-capacity}") int queueCapacity) {
+        this.userRepository = userRepository;
+        this.executor = new ThreadPoolExecutor(
+                senders,
+                senders,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("notifications-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.dropped = Counter.builder("notifications.dropped").register(meterRegistry);
+        this.stalled = Counter.builder("notifications.streams.stalled").register(meterRegistry);
+        Gauge.builder("notifications.streams", streams, s -> s.values().stream().mapToInt(List::size).sum())
+                .register(meterRegistry);
+    }
+
+    public SseEmitter subscribe(Integer userId) {
+        var stream = new Stream(new SseEmitter(timeout.toMillis()));
+        var userStreams = streams.compute(userId, (id, current) -> {
+            var list = current != null ? current : new CopyOnWriteArrayList<Stream>();
+            list.add(stream);
+            return list;
+        });
+        // a user that keeps opening tabs closes their oldest stream instead of piling up connections
+        while (userStreams.size() > maxStreamsPerUser) {
+            close(userId, userStreams.get(0));
+        }
+        stream.emitter.onCompletion(() -> remove(userId, stream));
+        stream.emitter.onTimeout(() -> remove(userId, stream));
+        stream.emitter.onError(e -> remove(userId, stream));
+        enqueue(userId, stream, SseEmitter.event().name("balance").data(new BalanceNotification(userRepository.findBalanceById(userId))));
+        return stream.emitter;
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onTransactionsRecorded(TransactionsRecordedEvent event) {
+        var subscribed = event.byUser().entrySet().stream()
+                .filter(entry -> streams.containsKey(entry.getKey()))
+                .toList();
+        if(subscribed.isEmpty()){
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                // one query for every account the event touched, however many streams each has open
+                Map<Integer, BigDecimal> balances = userRepository.findBalancesByIdIn(
+                                subscribed.stream().map(Map.Entry::getKey).toList()).stream()
+                        .collect(Collectors.toMap(AccountBalance::id, AccountBalance::balance));
+                subscribed.forEach(entry -> notify(entry.getKey(), entry.getValue(), balances.get(entry.getKey())));
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    // keeps proxies from closing idle streams and closes the ones whose client stopped reading
+    @Scheduled(
+            initialDelayString = "${application.notifications.heartbeat-interval}",
+            fixedRateString = "${application.notifications.heartbeat-interval}"
+    )
+    public void heartbeat() {
+        final long now = System.nanoTime();
+        streams.forEach((userId, userStreams) -> {
+            for (Stream stream : userStreams) {
+                long sendingSince = stream.sendingSince;
+                if(sendingSince != 0 && now - sendingSince > sendTimeout.toNanos()){
+                    log.debug("Closing a notification stream of user {} whose send is blocked", userId);
+                    stalled.increment();
+                    close(userId, stream);
+                }else{
+                    enqueue(userId, stream, SseEmitter.event().comment("heartbeat"));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+        streams.values().forEach(userStreams -> userStreams.forEach(stream -> stream.emitter.complete()));
+    }
+
+    private void notify(Integer userId, List<TransactionResponse> transactions, BigDecimal currentBalance) {
+        var userStreams = streams.get(userId);
+        if(userStreams == null || currentBalance == null){
+            return;
+        }
+        var balance = new BalanceNotification(currentBalance);
+        for (Stream stream : userStreams) {
+            for (TransactionResponse transaction : transactions) {
+                enqueue(userId, stream, SseEmitter.event().name("transaction").data(transaction));
+            }
+            enqueue(userId, stream, SseEmitter.event().name("balance").data(balance));
+        }
+    }
+
+    private void enqueue(Integer userId, Stream stream, SseEmitter.SseEventBuilder event) {
+        if(stream.closed){
+            return;
+        }
+        if(stream.pendingCount.incrementAndGet() > maxPendingEvents){
+            // the client reads slower than its events arrive
+            stalled.increment();
+            close(userId, stream);
+            return;
+        }
+        stream.pending.add(event);
+        schedule(userId, stream);
+    }
+
+    // at most one sender works on a stream, so its events go out in order and a stuck client holds one thread
+    private void schedule(Integer userId, Stream stream) {
+        if(!stream.scheduled.compareAndSet(false, true)){
+            return;
+        }
+        try {
+            executor.execute(() -> drain(userId, stream));
+        } catch (RejectedExecutionException e) {
+            stream.scheduled.set(false);
+            dropped.increment();
+        }
+    }
+
+    private void drain(Integer userId, Stream stream) {
+        try {
+            SseEmitter.SseEventBuilder event;
+            while (!stream.closed && (event = stream.pending.poll()) != null) {
+                stream.pendingCount.decrementAndGet();
+                stream.sendingSince = System.nanoTime();
+                try {
+                    stream.emitter.send(event);
+                } catch (IOException | IllegalStateException e) {
+                    // the container reports the broken connection and ends the request itself
+                    remove(userId, stream);
+                    return;
+                } finally {
+                    stream.sendingSince = 0;
+                }
+            }
+            if(stream.closed){
+                // completing waits for a send in progress, so it is done here and never on the scheduler
+                stream.emitter.complete();
+                return;
+            }
+        } finally {
+            stream.scheduled.set(false);
+        }
+        // an event queued after the last poll but before the flag was cleared
+        if(!stream.pending.isEmpty()){
+            schedule(userId, stream);
+        }
+    }
+
+    private void close(Integer userId, Stream stream) {
+        remove(userId, stream);
+        stream.closed = true;
+        stream.pending.clear();
+        schedule(userId, stream);
+    }
+
+    private void remove(Integer userId, Stream stream) {
+        streams.computeIfPresent(userId, (id, userStreams) -> {
+            userStreams.remove(stream);
+            return userStreams.isEmpty() ? null : userStreams;
+        });
+    }
+
+    private static final class Stream {
+        private final SseEmitter emitter;
+        private final Queue<SseEmitter.SseEventBuilder> pending = new ConcurrentLinkedQueue<>();
+        // the queue's own size() walks every element
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // System.nanoTime() when the send in progress started, 0 while none is
+        private volatile long sendingSince;
+        private volatile boolean closed;
+
+        private Stream(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+}
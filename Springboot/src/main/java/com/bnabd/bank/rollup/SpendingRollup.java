@@ -0,0 +1,53 @@
+package com.bnabd.bank.rollup;
+
+import com.bnabd.bank.transaction.TransactionType;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// running total of one user's transactions of one type in one month, hot accounts spread it over slots
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "spending_rollup")
+@IdClass(SpendingRollup.Key.class)
+public class SpendingRollup {
+    @Id
+    @Column(name = "user_id")
+    private Integer userId;
+
+    // first day of the month
+    @Id
+    private LocalDate month;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    private TransactionType type;
+
+    @Id
+    private Integer slot;
+
+    @Column(nullable = false)
+    private BigDecimal total;
+
+    @Column(nullable = false)
+    private Long entries;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Integer userId;
+        private LocalDate month;
+        private TransactionType type;
+        private Integer slot;
+    }
+}
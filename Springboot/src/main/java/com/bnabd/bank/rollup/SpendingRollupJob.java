@@ -0,0 +1,125 @@
+package com.bnabd.bank.rollup;
+
+import com.bnabd.bank.transaction.TransactionArchiveRepository;
+import com.bnabd.bank.transaction.TransactionMonths;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+// recomputes rollups from the transactions still in the database, one month per task on a small pool;
+// months already archived keep the rollups they had and are left out of verify and rebuild
+@Slf4j
+@Component
+// after TransactionPartitionJob, which may still be moving the transactions it reads into partitions
+@Order(2)
+public class SpendingRollupJob implements ApplicationRunner {
+    private final SpendingRollupRepository repository;
+    private final TransactionArchiveRepository archiveRepository;
+    private final TransactionTemplate writeTemplate;
+    private final TransactionTemplate snapshotTemplate;
+
+    @Value("${application.transactions.rollups.rebuild-parallelism}")
+    private int parallelism;
+
+    public SpendingRollupJob(SpendingRollupRepository repository, TransactionArchiveRepository archiveRepository,
+                             PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.archiveRepository = archiveRepository;
+        this.writeTemplate = new TransactionTemplate(transactionManager);
+        // rollups are written in the same transaction as their rows, so one snapshot sees both in step
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTemplate.setReadOnly(true);
+    }
+
+    // backfill on the first start after rollups were introduced
+    @Override
+    public void run(ApplicationArguments args) {
+        if(repository.count() == 0 && repository.findOldestMonth() != null){
+            var report = rebuild();
+            log.info("Backfilled spending rollups for {} months", report.months());
+        }
+    }
+
+    public SpendingRollupReport verify() {
+        return forEachMonth(month -> snapshotTemplate.execute(status -> countMismatches(month)));
+    }
+
+    // only months that disagree are rewritten
+    public SpendingRollupReport rebuild() {
+        final var current = TransactionMonths.current();
+        return forEachMonth(month -> writeTemplate.execute(status -> {
+            // recent months may still receive rows
+            if(!month.isBefore(current.minusMonths(1))){
+                repository.lockAgainstWriters();
+            }
+            long mismatches = countMismatches(month);
+            if(mismatches > 0){
+                repository.deleteMonth(month.atDay(1));
+                repository.insertMonth(month.atDay(1));
+            }
+            return mismatches;
+        }));
+    }
+
+    private long countMismatches(YearMonth month) {
+        return repository.countMismatches(month.atDay(1));
+    }
+
+    private SpendingRollupReport forEachMonth(ToLongFunction<YearMonth> task) {
+        String oldest = repository.findOldestMonth();
+        String newest = repository.findNewestMonth();
+        if(oldest == null){
+            return new SpendingRollupReport(0, List.of());
+        }
+        // rows left in the database cannot tell whether an archived month's rollup is right, so it is never touched
+        Set<YearMonth> archived = archiveRepository.findAll().stream()
+                .map(archive -> YearMonth.from(archive.getRangeStart()))
+                .collect(Collectors.toSet());
+        final long started = System.nanoTime();
+        Map<YearMonth, Future<Long>> results = new LinkedHashMap<>();
+        try (var executor = Executors.newFixedThreadPool(parallelism)) {
+            for (var month = YearMonth.parse(oldest); !month.isAfter(YearMonth.parse(newest)); month = month.plusMonths(1)) {
+                if(archived.contains(month)){
+                    continue;
+                }
+                final var m = month;
+                results.put(m, executor.submit(() -> task.applyAsLong(m)));
+            }
+        }
+        List<YearMonth> mismatched = new ArrayList<>();
+        for (var result : results.entrySet()) {
+            try {
+                if(result.getValue().get() > 0){
+                    mismatched.add(result.getKey());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while checking spending rollups.", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Checking spending rollups of " + result.getKey() + " failed.", e.getCause());
+            }
+        }
+        log.info("Checked spending rollups of {} months in {} ms, mismatched: {}",
+                results.size(), (System.nanoTime() - started) / 1_000_000, mismatched);
+        return new SpendingRollupReport(results.size(), mismatched);
+    }
+}
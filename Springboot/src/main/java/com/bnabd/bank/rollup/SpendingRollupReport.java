@@ -0,0 +1,8 @@
+package com.bnabd.bank.rollup;
+
+import java.time.YearMonth;
+import java.util.List;
+
+// months compared with the transactions table and the ones whose rollups disagreed with it
+public record SpendingRollupReport(int months, List<YearMonth> mismatchedMonths) {
+}
@@ -0,0 +1,73 @@
+package com.bnabd.bank.rollup;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+public interface SpendingRollupRepository extends JpaRepository<SpendingRollup, SpendingRollup.Key> {
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            insert into spending_rollup as r (user_id, month, type, slot, total, entries)
+            values (:userId, :month, :type, :slot, :total, :entries)
+            on conflict (user_id, month, type, slot) do update
+            set total = r.total + excluded.total, entries = r.entries + excluded.entries
+            """, nativeQuery = true)
+    int add(Integer userId, LocalDate month, String type, Integer slot, BigDecimal total, Long entries);
+
+    // one primary key range per user, at most months times types rows
+    @Query("select new com.bnabd.bank.rollup.SpendingSummary(r.month, r.type, sum(r.total), sum(r.entries)) "
+            + "from SpendingRollup r where r.userId = :userId and r.month >= :from and r.month <= :to "
+            + "group by r.month, r.type order by r.month desc, r.type")
+    List<SpendingSummary> findSummary(Integer userId, LocalDate from, LocalDate to);
+
+    // months are taken from the stored column as the partitions are, see TransactionMonths
+    @Query(value = "select to_char(min(created_at), 'YYYY-MM') from transactions", nativeQuery = true)
+    String findOldestMonth();
+
+    @Query(value = "select to_char(max(created_at), 'YYYY-MM') from transactions", nativeQuery = true)
+    String findNewestMonth();
+
+    // (user, type) pairs of the month whose rollup differs from the transactions it was built from
+    @Query(value = """
+            select count(*) from (
+                select user_id, type, coalesce(sum(amount), 0) as total, count(*) as entries from transactions
+                where created_at >= :month and created_at < cast(:month as date) + interval '1 month'
+                and user_id is not null and type is not null
+                group by user_id, type
+            ) t full join (
+                select user_id, type, sum(total) as total, sum(entries) as entries from spending_rollup
+                where month = :month group by user_id, type
+            ) r on r.user_id = t.user_id and r.type = t.type
+            where t.total is distinct from r.total or t.entries is distinct from r.entries
+            """, nativeQuery = true)
+    long countMismatches(LocalDate month);
+
+    @Transactional
+    @Modifying
+    @Query(value = "delete from spending_rollup where month = :month", nativeQuery = true)
+    int deleteMonth(LocalDate month);
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            insert into spending_rollup (user_id, month, type, slot, total, entries)
+            select user_id, :month, type, 0, coalesce(sum(amount), 0), count(*) from transactions
+            where created_at >= :month and created_at < cast(:month as date) + interval '1 month'
+            and user_id is not null and type is not null
+            group by user_id, type
+            """, nativeQuery = true)
+    int insertMonth(LocalDate month);
+
+    // writers queue on their upsert until the rebuilding transaction commits
+    @Transactional
+    @Modifying
+    @Query(value = "lock table spending_rollup in exclusive mode", nativeQuery = true)
+    void lockAgainstWriters();
+}
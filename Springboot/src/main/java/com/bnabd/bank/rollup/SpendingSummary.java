@@ -0,0 +1,15 @@
+package com.bnabd.bank.rollup;
+
+import com.bnabd.bank.transaction.TransactionType;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+
+public record SpendingSummary(YearMonth month, TransactionType type, BigDecimal total, Long entries) {
+
+    // used by the JPQL constructor expression, rollups are keyed by the first day of the month
+    public SpendingSummary(LocalDate month, TransactionType type, BigDecimal total, Long entries) {
+        this(YearMonth.from(month), type, total, entries);
+    }
+}
@@ -7,11 +7,14 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.LocalDateTime;
+
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
+@Table(indexes = @Index(name = "idx_token_created_at", columnList = "created_at"))
 public class Token {
 
   @Id
@@ -28,6 +31,8 @@ public class Token {
 
   public boolean expired;
 
+  public LocalDateTime createdAt;
+
   @ManyToOne(fetch = FetchType.LAZY)
   @JoinColumn(name = "user_id")
   public User user;
@@ -0,0 +1,53 @@
+package com.bnabd.bank.token;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+// purges token rows whose jwt has expired, one short transaction per batch so it can stop anywhere
+@Slf4j
+@Component
+public class TokenCompactionJob {
+
+  private final TokenRepository tokenRepository;
+  private final Counter purgedRows;
+  private final Timer duration;
+
+  @Value("${application.security.jwt.expiration}")
+  private long jwtExpiration;
+  @Value("${application.security.token-compaction.batch-size}")
+  private int batchSize;
+
+  public TokenCompactionJob(TokenRepository tokenRepository, MeterRegistry meterRegistry) {
+    this.tokenRepository = tokenRepository;
+    this.purgedRows = Counter.builder("token.compaction.purged").register(meterRegistry);
+    this.duration = Timer.builder("token.compaction.duration").register(meterRegistry);
+  }
+
+  @Scheduled(
+      initialDelayString = "${application.security.token-compaction.interval}",
+      fixedDelayString = "${application.security.token-compaction.interval}"
+  )
+  public void compact() {
+    final long started = System.nanoTime();
+    final var cutoff = LocalDateTime.now(ZoneOffset.UTC).minus(Duration.ofMillis(jwtExpiration));
+    int purged = 0;
+    int deleted;
+    do {
+      deleted = tokenRepository.deleteIssuedBefore(cutoff, batchSize);
+      purged += deleted;
+    } while (deleted == batchSize);
+    final var took = Duration.ofNanos(System.nanoTime() - started);
+    purgedRows.increment(purged);
+    duration.record(took);
+    log.info("Token compaction purged {} rows issued before {} in {} ms", purged, cutoff, took.toMillis());
+  }
+}
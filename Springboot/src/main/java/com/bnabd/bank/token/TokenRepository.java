@@ -1,19 +1,36 @@
 package com.bnabd.bank.token;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
 public interface TokenRepository extends JpaRepository<Token, Integer> {
 
+  Optional<Token> findByToken(String token);
+
   @Query(value = """
-      select t from Token t inner join User u\s
-      on t.user.id = u.id\s
-      where u.id = :id and (t.expired = false or t.revoked = false)\s
+      select t from Token t\s
+      where t.id > :afterId and (t.expired = true or t.revoked = true)\s
+      order by t.id\s
       """)
-  List<Token> findAllValidTokenByUser(Integer id);
+  List<Token> findRevokedTokensAfter(Integer afterId, Limit limit);
 
-  Optional<Token> findByToken(String token);
+  // rows without created_at predate the column and belong to tokens that can no longer be used
+  @Transactional
+  @Modifying
+  @Query(value = """
+      delete from token where id in (\s
+        select id from token\s
+        where created_at < :cutoff or created_at is null\s
+        limit :batchSize\s
+        for update skip locked\s
+      )\s
+      """, nativeQuery = true)
+  int deleteIssuedBefore(LocalDateTime cutoff, int batchSize);
 }
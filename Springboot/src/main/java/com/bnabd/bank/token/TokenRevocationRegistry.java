@@ -0,0 +1,87 @@
+package com.bnabd.bank.token;
+
+import com.bnabd.bank.config.JwtService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TokenRevocationRegistry {
+
+  private static final int SEED_BATCH_SIZE = 1000;
+
+  private final TokenRepository tokenRepository;
+  private final JwtService jwtService;
+
+  @Value("${application.security.jwt.revocation.maximum-size}")
+  private long maximumSize;
+
+  // digests of revoked tokens, each kept only until the token would have expired anyway
+  private Cache<String, Instant> revokedTokens;
+
+  @PostConstruct
+  void init() {
+    revokedTokens = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfter(new Expiry<String, Instant>() {
+          @Override
+          public long expireAfterCreate(String digest, Instant expiresAt, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(expiresAt.toEpochMilli() - System.currentTimeMillis());
+          }
+
+          @Override
+          public long expireAfterUpdate(String digest, Instant expiresAt, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+
+          @Override
+          public long expireAfterRead(String digest, Instant expiresAt, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .build();
+    seed();
+  }
+
+  public boolean isRevoked(String token) {
+    return revokedTokens.getIfPresent(TokenDigest.of(token)) != null;
+  }
+
+  public void revoke(String token) {
+    try {
+      var expiresAt = jwtService.extractClaim(token, Claims::getExpiration).toInstant();
+      revokedTokens.put(TokenDigest.of(token), expiresAt);
+    } catch (JwtException e) {
+      // expired or foreign tokens are rejected by the filter already
+    }
+  }
+
+  private void seed() {
+    int seeded = 0;
+    int afterId = 0;
+    List<Token> batch;
+    do {
+      batch = tokenRepository.findRevokedTokensAfter(afterId, Limit.of(SEED_BATCH_SIZE));
+      for (Token token : batch) {
+        revoke(token.getToken());
+        afterId = token.getId();
+      }
+      seeded += batch.size();
+    } while (batch.size() == SEED_BATCH_SIZE);
+    log.info("Loaded {} revoked tokens, {} still unexpired", seeded, revokedTokens.estimatedSize());
+  }
+}
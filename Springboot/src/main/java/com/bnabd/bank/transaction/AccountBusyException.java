@@ -0,0 +1,8 @@
+package com.bnabd.bank.transaction;
+
+public class AccountBusyException extends RuntimeException {
+
+    public AccountBusyException() {
+        super("Account is busy, try again shortly.");
+    }
+}
@@ -0,0 +1,108 @@
+package com.bnabd.bank.transaction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// serializes balance changes per account, accounts that share no stripe never wait on each other
+@Component
+public class AccountLockManager {
+
+    private final ReentrantLock[] stripes;
+    private final long timeoutNanos;
+    private final Counter contended;
+    private final Counter timeouts;
+    private final Timer waitTime;
+
+    public AccountLockManager(
+            @Value("${application.transactions.locks.stripes}") int stripeCount,
+            @Value("${application.transactions.locks.timeout}") Duration timeout,
+            MeterRegistry meterRegistry
+    ) {
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.timeoutNanos = timeout.toNanos();
+        this.contended = Counter.builder("account.lock.contended").register(meterRegistry);
+        this.timeouts = Counter.builder("account.lock.timeouts").register(meterRegistry);
+        this.waitTime = Timer.builder("account.lock.wait").register(meterRegistry);
+    }
+
+    public AcquiredLocks lock(Integer... accountIds) {
+        return lock(Arrays.asList(accountIds));
+    }
+
+    // stripes are always taken in ascending order, so two callers can never wait on each other in a cycle
+    public AcquiredLocks lock(Collection<Integer> accountIds) {
+        int[] indices = accountIds.stream()
+                .mapToInt(this::stripeOf)
+                .distinct()
+                .sorted()
+                .toArray();
+        final long deadline = System.nanoTime() + timeoutNanos;
+        int acquired = 0;
+        try {
+            for (int index : indices) {
+                acquire(stripes[index], deadline);
+                acquired++;
+            }
+        } catch (RuntimeException e) {
+            release(indices, acquired);
+            throw e;
+        }
+        return new AcquiredLocks(indices);
+    }
+
+    private void acquire(ReentrantLock lock, long deadline) {
+        if (lock.tryLock()) {
+            return;
+        }
+        contended.increment();
+        final long started = System.nanoTime();
+        try {
+            if (!lock.tryLock(deadline - started, TimeUnit.NANOSECONDS)) {
+                timeouts.increment();
+                throw new AccountBusyException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AccountBusyException();
+        } finally {
+            waitTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void release(int[] indices, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            stripes[indices[i]].unlock();
+        }
+    }
+
+    private int stripeOf(Integer accountId) {
+        // spread sequential ids so neighbouring accounts land on different stripes
+        return Math.floorMod(accountId * 0x9E3779B9, stripes.length);
+    }
+
+    public final class AcquiredLocks implements AutoCloseable {
+
+        private final int[] indices;
+
+        private AcquiredLocks(int[] indices) {
+            this.indices = indices;
+        }
+
+        @Override
+        public void close() {
+            release(indices, indices.length);
+        }
+    }
+}
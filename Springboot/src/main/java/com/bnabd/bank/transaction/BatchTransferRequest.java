@@ -0,0 +1,17 @@
+package com.bnabd.bank.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchTransferRequest {
+    private List<TransferRequest> transfers;
+    // all transfers or none, otherwise every transfer that can be covered is applied
+    private boolean atomic;
+}
@@ -0,0 +1,20 @@
+package com.bnabd.bank.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchTransferResponse {
+    private boolean atomic;
+    private int completed;
+    private int rejected;
+    private BigDecimal totalAmount;
+    private List<BatchTransferResult> results;
+}
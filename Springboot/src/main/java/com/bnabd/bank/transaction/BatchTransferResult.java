@@ -0,0 +1,19 @@
+package com.bnabd.bank.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchTransferResult {
+    private int index;
+    private String accountNumberDest;
+    private BigDecimal amount;
+    private BatchTransferStatus status;
+    private String message;
+}
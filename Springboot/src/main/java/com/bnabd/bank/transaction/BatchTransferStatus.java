@@ -0,0 +1,7 @@
+package com.bnabd.bank.transaction;
+
+public enum BatchTransferStatus {
+    COMPLETED,
+    REJECTED,
+    NOT_APPLIED
+}
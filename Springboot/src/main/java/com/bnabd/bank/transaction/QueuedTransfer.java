@@ -0,0 +1,8 @@
+package com.bnabd.bank.transaction;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+// a validated transfer waiting in the pipeline, it carries ids only so no entity crosses threads
+public record QueuedTransfer(UUID id, Integer userId, String accountNumberDest, BigDecimal amount) {
+}
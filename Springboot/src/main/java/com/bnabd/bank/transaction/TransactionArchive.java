@@ -0,0 +1,41 @@
+package com.bnabd.bank.transaction;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+// a month of transactions that was moved out of the database into a compressed file
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "transaction_archive")
+public class TransactionArchive {
+    @Id
+    private String partitionName;
+
+    @Column(nullable = false)
+    private LocalDate rangeStart;
+
+    @Column(nullable = false)
+    private LocalDate rangeEnd;
+
+    @Column(nullable = false)
+    private String path;
+
+    @Column(nullable = false)
+    private Long rowCount;
+
+    // accounts with at least one row in the file, history reads skip files that have nothing for them
+    @Column(nullable = false)
+    private Integer[] userIds;
+
+    @Column(nullable = false)
+    private Instant archivedAt;
+}
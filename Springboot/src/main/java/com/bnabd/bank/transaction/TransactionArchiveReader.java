@@ -0,0 +1,190 @@
+package com.bnabd.bank.transaction;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+// history older than the partitions kept in the database, read straight from the archive files
+@Component
+@RequiredArgsConstructor
+public class TransactionArchiveReader {
+    private static final LocalDate NO_CURSOR = LocalDate.of(9999, 12, 31);
+
+    private final TransactionArchiveRepository repository;
+
+    @Value("${application.transactions.partitions.archive-cache.maximum-rows}")
+    private long cacheMaximumRows;
+    @Value("${application.transactions.partitions.archive-cache.expire-after-access}")
+    private Duration cacheExpireAfterAccess;
+
+    // a user's rows of one archived month, someone paging back through it decompresses the file once
+    private LoadingCache<Block, List<TransactionHistoryRow>> blocks;
+
+    @PostConstruct
+    void init() {
+        blocks = Caffeine.newBuilder()
+                .maximumWeight(cacheMaximumRows)
+                .weigher((Block block, List<TransactionHistoryRow> rows) -> Math.max(1, rows.size()))
+                .expireAfterAccess(cacheExpireAfterAccess)
+                .build(block -> read(block.file(), block.userId()));
+    }
+
+    // rows of the user strictly before the cursor (all of them without one), newest first
+    public List<TransactionHistoryRow> findHistory(Integer userId, TransactionCursor before, int limit) {
+        LocalDate until = before != null ? before.createdAt().toLocalDate().plusDays(1) : NO_CURSOR;
+        List<TransactionHistoryRow> rows = new ArrayList<>();
+        for (TransactionArchive archive : repository.findHoldingUser(userId, until)) {
+            List<TransactionHistoryRow> block = blocks.get(new Block(Path.of(archive.getPath()), userId));
+            int from = before == null ? 0 : firstBefore(block, before);
+            int to = Math.min(block.size(), from + limit - rows.size());
+            rows.addAll(block.subList(from, to));
+            if(rows.size() >= limit){
+                break;
+            }
+        }
+        return rows;
+    }
+
+    // end of the newest archived month the user has rows in, older history is only in the files
+    public Optional<LocalDate> archivedUntil(Integer userId) {
+        return repository.findNewestHoldingUser(userId).map(TransactionArchive::getRangeEnd);
+    }
+
+    // rows of the user created in [from, to), oldest first, handed over one month at a time
+    public void forEachInRange(Integer userId, LocalDateTime from, LocalDateTime to,
+                               Consumer<TransactionHistoryRow> action) {
+        // archive months are cut in UTC and the range is in the JVM's zone, a day either side covers the offset
+        for (TransactionArchive archive : repository.findHoldingUserBetween(
+                userId, from.toLocalDate().minusDays(1), to.toLocalDate())) {
+            List<TransactionHistoryRow> block = blocks.get(new Block(Path.of(archive.getPath()), userId));
+            for (int i = block.size() - 1; i >= 0; i--) {
+                var row = block.get(i);
+                if(!row.createdAt().isBefore(from) && row.createdAt().isBefore(to)){
+                    action.accept(row);
+                }
+            }
+        }
+    }
+
+    // the block is newest first, so the rows before the cursor are a suffix of it
+    private static int firstBefore(List<TransactionHistoryRow> block, TransactionCursor cursor) {
+        int low = 0;
+        int high = block.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if(isBefore(block.get(middle), cursor)){
+                high = middle;
+            }else{
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    // files are sorted by user_id, then newest first, so reading stops at the end of the user's block
+    static List<TransactionHistoryRow> read(Path file, Integer userId) {
+        List<TransactionHistoryRow> rows = new ArrayList<>();
+        try (var reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                String rowUser = unescape(fields[TransactionPartitionJob.USER_ID_COLUMN]);
+                if(rowUser == null){
+                    break;
+                }
+                int compared = Integer.compare(Integer.parseInt(rowUser), userId);
+                if(compared < 0){
+                    continue;
+                }
+                if(compared > 0){
+                    break;
+                }
+                rows.add(toRow(fields));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read transaction archive " + file, e);
+        }
+        return rows;
+    }
+
+    private static boolean isBefore(TransactionHistoryRow row, TransactionCursor cursor) {
+        int compared = row.createdAt().compareTo(cursor.createdAt());
+        return compared < 0 || compared == 0 && row.id() < cursor.id();
+    }
+
+    // columns as written by TransactionPartitionJob: id, type, amount, created_at, recipient, description, user_id
+    static TransactionHistoryRow toRow(String[] fields) {
+        String type = unescape(fields[1]);
+        String amount = unescape(fields[2]);
+        return new TransactionHistoryRow(
+                Integer.valueOf(fields[0]),
+                type != null ? TransactionType.valueOf(type) : null,
+                amount != null ? new BigDecimal(amount) : null,
+                createdAt(fields[3]),
+                unescape(fields[4]),
+                unescape(fields[5]));
+    }
+
+    // the column holds UTC, Hibernate hands createdAt out in the JVM's zone and the cursor is compared in it
+    private static LocalDateTime createdAt(String field) {
+        return LocalDateTime.parse(field.replace(' ', 'T'))
+                .atOffset(ZoneOffset.UTC)
+                .atZoneSameInstant(ZoneId.systemDefault())
+                .toLocalDateTime();
+    }
+
+    // COPY text format: \N is null, control characters and backslashes are escaped
+    static String unescape(String field) {
+        if(field.equals("\\N")){
+            return null;
+        }
+        if(field.indexOf('\\') < 0){
+            return field;
+        }
+        var out = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if(c != '\\' || i + 1 == field.length()){
+                out.append(c);
+                continue;
+            }
+            char next = field.charAt(++i);
+            switch (next) {
+                case 'n' -> out.append('\n');
+                case 't' -> out.append('\t');
+                case 'r' -> out.append('\r');
+                case 'b' -> out.append('\b');
+                case 'f' -> out.append('\f');
+                case 'v' -> out.append('\u000B');
+                default -> out.append(next);
+            }
+        }
+        return out.toString();
+    }
+
+    private record Block(Path file, Integer userId) {
+    }
+}
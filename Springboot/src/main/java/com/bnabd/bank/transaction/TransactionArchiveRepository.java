@@ -0,0 +1,26 @@
+package com.bnabd.bank.transaction;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+public interface TransactionArchiveRepository extends JpaRepository<TransactionArchive, String> {
+
+    // newest month first, the order history pages are read in
+    @Query(value = "select * from transaction_archive where :userId = any(user_ids) and range_start < :before "
+            + "order by range_start desc", nativeQuery = true)
+    List<TransactionArchive> findHoldingUser(Integer userId, LocalDate before);
+
+    // oldest month first, the order exports are written in
+    @Query(value = "select * from transaction_archive where :userId = any(user_ids) and range_end > :from "
+            + "and range_start <= :to order by range_start", nativeQuery = true)
+    List<TransactionArchive> findHoldingUserBetween(Integer userId, LocalDate from, LocalDate to);
+
+    // the newest archived month the user has rows in, searches do not reach into it
+    @Query(value = "select * from transaction_archive where :userId = any(user_ids) "
+            + "order by range_start desc limit 1", nativeQuery = true)
+    Optional<TransactionArchive> findNewestHoldingUser(Integer userId);
+}
@@ -1,68 +1,142 @@
 package com.bnabd.bank.transaction;
 
-import com.bnabd.bank.auth.AuthenticationService;
+import com.bnabd.bank.config.CurrentUser;
+import com.bnabd.bank.idempotency.IdempotencyService;
+import com.bnabd.bank.rollup.SpendingSummary;
 import com.bnabd.bank.user.User;
+import com.bnabd.bank.user.UserPrincipal;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.List;
-import java.util.Optional;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/transactions")
 @RequiredArgsConstructor
 public class TransactionController {
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     private final TransactionService service;
-    private final AuthenticationService authService;
+    private final IdempotencyService idempotency;
+    private final TransferPipeline pipeline;
 
 
     @PreAuthorize("isAuthenticated()")
     @GetMapping("/last5")
-    public List<TransactionResponse> getLast5Transactions(@AuthenticationPrincipal UserDetails userDetails) {
-        Integer userId = authService.getUserIdFromEmail(userDetails.getUsername());
-        return service.getLast5Transactions(userId);
+    public List<TransactionResponse> getLast5Transactions(@AuthenticationPrincipal UserPrincipal principal) {
+        return service.getLast5Transactions(principal.getId());
     }
 
     @PreAuthorize("isAuthenticated()")
     @GetMapping
-    public Page<TransactionResponse> getTransactionsWithPagination(@AuthenticationPrincipal UserDetails userDetails,
+    public Page<TransactionResponse> getTransactionsWithPagination(@AuthenticationPrincipal UserPrincipal principal,
                                                                    @RequestParam(defaultValue = "0") int page,
                                                                    @RequestParam(defaultValue = "10") int size) {
-        Integer userId = authService.getUserIdFromEmail(userDetails.getUsername());
-        return service.getTransactionsWithPagination(userId, page, size);
+        return service.getTransactionsWithPagination(principal.getId(), page, size);
     }
-    @PostMapping("/deposit")
-    public ResponseEntity<?> deposit(@RequestBody Transaction request, @RequestHeader("Authorization") String token){
-        Optional<User> user = authService.findUserByToken(token);
-        if(user.isEmpty())
-            return ResponseEntity.badRequest().body("User wasn't found or access token is invalid.");
 
-        service.deposit(request, user.get());
-        return ResponseEntity.ok().build();
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping("/history")
+    public TransactionHistoryResponse getTransactionHistory(@AuthenticationPrincipal UserPrincipal principal,
+                                                            @RequestParam(required = false) String cursor,
+                                                            @RequestParam(defaultValue = "20") int size) {
+        return service.getTransactionHistory(principal.getId(), cursor, size);
     }
 
-    @PostMapping("/atm_deposit")
-    public ResponseEntity<?> atmDeposit(@RequestBody Transaction request, @RequestHeader("Authorization") String token){
-        Optional<User> user = authService.findUserByToken(token);
-        if(user.isEmpty())
-            return ResponseEntity.badRequest().body("User wasn't found or access token is invalid.");
+    // the last twelve months unless a range is given
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping("/summary")
+    public List<SpendingSummary> getSpendingSummary(@AuthenticationPrincipal UserPrincipal principal,
+                                                    @RequestParam(required = false) YearMonth from,
+                                                    @RequestParam(required = false) YearMonth to) {
+        YearMonth end = to != null ? to : TransactionMonths.current();
+        return service.getSpendingSummary(principal.getId(), from != null ? from : end.minusMonths(11), end);
+    }
+
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping("/search")
+    public TransactionHistoryResponse search(@AuthenticationPrincipal UserPrincipal principal,
+                                             TransactionSearchRequest filters,
+                                             @RequestParam(required = false) String cursor,
+                                             @RequestParam(defaultValue = "20") int size) {
+        return service.search(principal.getId(), filters, cursor, size);
+    }
+
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@AuthenticationPrincipal UserPrincipal principal,
+                                                        @RequestParam(defaultValue = "CSV") ExportFormat format,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"transactions." + format.getExtension() + "\"")
+                .body(service.export(principal.getId(), format, from, to));
+    }
+    @PostMapping("/deposit")
+    public ResponseEntity<?> deposit(@RequestBody Transaction request, @CurrentUser User user,
+                                     @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey){
+        return idempotency.execute(user.getId(), idempotencyKey, "deposit|" + amountOf(request.getAmount()), () -> {
+            service.deposit(request, user);
+            return ResponseEntity.ok().build();
+        });
+    }
 
-        service.atmDeposit(request, user.get());
-        return ResponseEntity.ok().build();
+    @PostMapping("/atm_deposit")
+    public ResponseEntity<?> atmDeposit(@RequestBody Transaction request, @CurrentUser User user,
+                                        @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey){
+        return idempotency.execute(user.getId(), idempotencyKey, "atm_deposit|" + amountOf(request.getAmount()), () -> {
+            service.atmDeposit(request, user);
+            return ResponseEntity.ok().build();
+        });
     }
 
     @PreAuthorize("isAuthenticated()")
     @PostMapping("/transfer")
-    public ResponseEntity<?> transfer(@RequestHeader("Authorization") String token, @RequestBody TransferRequest request) {
-        Optional<User> user = authService.findUserByToken(token);
-        if(user.isEmpty())
-            return ResponseEntity.badRequest().body("User wasn't found or access token is invalid.");
-        return service.transfer(user.get(), request);
+    public ResponseEntity<?> transfer(@CurrentUser User user, @RequestBody TransferRequest request,
+                                      @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        String fingerprint = "transfer|" + request.getAccountNumberDest() + "|" + amountOf(request.getAmount());
+        return service.transfer(user, request,
+                transfer -> idempotency.execute(user.getId(), idempotencyKey, fingerprint, transfer));
+    }
+
+    // 10 and 10.00 are the same request
+    private String amountOf(BigDecimal amount) {
+        return amount == null ? "" : amount.stripTrailingZeros().toPlainString();
+    }
+
+    // accepted transfers are applied in the background, the returned id tracks them
+    @PreAuthorize("isAuthenticated()")
+    @PostMapping("/transfer/async")
+    public ResponseEntity<?> transferAsync(@AuthenticationPrincipal UserPrincipal principal, @RequestBody TransferRequest request) {
+        String rejection = service.validateTransfer(request);
+        if(rejection != null){
+            return ResponseEntity.badRequest().body(rejection);
+        }
+        return ResponseEntity.accepted().body(pipeline.submit(principal.getId(), request));
+    }
+
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping("/transfer/async/{id}")
+    public ResponseEntity<TransferOutcome> transferStatus(@AuthenticationPrincipal UserPrincipal principal, @PathVariable UUID id) {
+        return ResponseEntity.of(pipeline.status(principal.getId(), id));
+    }
+
+    @PreAuthorize("isAuthenticated()")
+    @PostMapping("/transfer/batch")
+    public ResponseEntity<?> transferBatch(@CurrentUser User user, @RequestBody BatchTransferRequest request) {
+        return service.transferBatch(user, request);
     }
 }
@@ -0,0 +1,74 @@
+package com.bnabd.bank.transaction;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// writes a user's history row by row while the database cursor advances, memory use does not depend on its length;
+// archived months are read from their files a month at a time
+@Component
+@RequiredArgsConstructor
+public class TransactionExporter {
+    private static final String CSV_HEADER = "created_at,type,amount,recipient,description";
+
+    private final TransactionRepository repository;
+    private final TransactionArchiveReader archiveReader;
+    private final ObjectMapper objectMapper;
+
+    // the Postgres driver only fetches through a cursor inside a transaction, closing the stream releases it;
+    // one snapshot for the rows and the archive list, so a month archived meanwhile is read exactly once
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public void export(Integer userId, LocalDateTime from, LocalDateTime to, ExportFormat format,
+                       OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        if(format == ExportFormat.CSV){
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+        Consumer<TransactionHistoryRow> write = row -> {
+            try {
+                writer.write(format == ExportFormat.CSV ? toCsv(row) : objectMapper.writeValueAsString(row.toResponse()));
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        // archived months are older than every row still in the database, so they come first
+        try (Stream<TransactionHistoryRow> rows = repository.streamHistory(userId, from, to)) {
+            archiveReader.forEachInRange(userId, from, to, write);
+            rows.forEach(write);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    private String toCsv(TransactionHistoryRow row) {
+        return String.join(",",
+                String.valueOf(row.createdAt()),
+                String.valueOf(row.type()),
+                String.valueOf(row.amount()),
+                csvField(row.recipient()),
+                csvField(row.description()));
+    }
+
+    private String csvField(String value) {
+        if(value == null){
+            return "";
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,21 @@
+package com.bnabd.bank.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransactionHistoryResponse {
+    private List<TransactionResponse> transactions;
+    // null on the last page
+    private String nextCursor;
+    // set when the search range reaches into archived months, which are not searched: nothing before this date is included
+    private LocalDate archivedBefore;
+}
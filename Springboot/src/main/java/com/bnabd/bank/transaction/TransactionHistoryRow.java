@@ -0,0 +1,19 @@
+package com.bnabd.bank.transaction;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// a history entry together with the id the keyset cursor needs
+public record TransactionHistoryRow(
+        Integer id,
+        TransactionType type,
+        BigDecimal amount,
+        LocalDateTime createdAt,
+        String recipient,
+        String description
+) {
+
+    public TransactionResponse toResponse() {
+        return new TransactionResponse(type, amount, createdAt, recipient, description);
+    }
+}
@@ -0,0 +1,23 @@
+package com.bnabd.bank.transaction;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+// the month of a transaction is the month of its created_at column, which holds UTC (hibernate.jdbc.time_zone);
+// partitions, archives and spending rollups all group by it
+public final class TransactionMonths {
+
+    private TransactionMonths() {
+    }
+
+    // createdAt as the entity holds it, in the JVM's zone the way Hibernate reads and writes it
+    public static YearMonth of(LocalDateTime createdAt) {
+        return YearMonth.from(createdAt.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneOffset.UTC));
+    }
+
+    public static YearMonth current() {
+        return YearMonth.now(ZoneOffset.UTC);
+    }
+}
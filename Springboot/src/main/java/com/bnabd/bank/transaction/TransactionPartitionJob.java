@@ -0,0 +1,281 @@
+package com.bnabd.bank.transaction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+// keeps transactions in monthly range partitions on created_at: future months are created ahead of time,
+// months past the retention are copied to gzip files, detached and dropped
+@Slf4j
+@Component
+@Order(1)
+public class TransactionPartitionJob implements ApplicationRunner {
+    static final int USER_ID_COLUMN = 6;
+
+    private static final String ARCHIVE_COLUMNS = "id, type, amount, created_at, recipient, description, user_id";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final String PARTITION_PATTERN = "^transactions_[0-9]{4}_[0-9]{2}$";
+    // catches rows no monthly partition covers, so an insert never fails for lack of one
+    private static final String DEFAULT_PARTITION = "transactions_default";
+    private static final String LEGACY_TABLE = "transactions_legacy";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionArchiveRepository archiveRepository;
+    private final Counter defaultRows;
+
+    @Value("${application.transactions.partitions.months-ahead}")
+    private int monthsAhead;
+    @Value("${application.transactions.partitions.retention-months}")
+    private int retentionMonths;
+    @Value("${application.transactions.partitions.archive-dir}")
+    private Path archiveDir;
+    @Value("${application.transactions.partitions.migration-batch-size}")
+    private int migrationBatchSize;
+
+    public TransactionPartitionJob(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                   TransactionArchiveRepository archiveRepository, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.archiveRepository = archiveRepository;
+        this.defaultRows = Counter.builder("transactions.partitions.default.rows").register(meterRegistry);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if("r".equals(jdbcTemplate.queryForObject(
+                    "select relkind::text from pg_class where oid = to_regclass('transactions')", String.class))){
+                partitionLegacyTable();
+            }
+            createDefaultPartition();
+            createRecipientIndex();
+            createAhead(currentMonth());
+        });
+        moveLegacyRows();
+    }
+
+    @Scheduled(
+            initialDelayString = "${application.transactions.partitions.maintenance-interval}",
+            fixedDelayString = "${application.transactions.partitions.maintenance-interval}"
+    )
+    public void maintain() {
+        final var month = currentMonth();
+        transactionTemplate.executeWithoutResult(status -> {
+            rescueDefaultRows();
+            createAhead(month);
+        });
+        final var cutoff = month.minusMonths(retentionMonths);
+        for (String partition : jdbcTemplate.queryForList(
+                "select c.relname::text from pg_inherits i join pg_class c on c.oid = i.inhrelid "
+                        + "where i.inhparent = 'transactions'::regclass and c.relname ~ '" + PARTITION_PATTERN + "' "
+                        + "order by c.relname", String.class)) {
+            var partitionMonth = YearMonth.parse(partition.substring("transactions_".length()), PARTITION_SUFFIX);
+            if(partitionMonth.isBefore(cutoff)){
+                archive(partition, partitionMonth);
+            }
+        }
+    }
+
+    // one-off switch from the plain table created by Hibernate, run in the caller's transaction; only the schema
+    // changes here, the rows follow in moveLegacyRows so the exclusive lock on transactions is held briefly
+    private void partitionLegacyTable() {
+        jdbcTemplate.execute("alter table transactions rename to " + LEGACY_TABLE);
+        jdbcTemplate.execute("alter index if exists idx_transactions_user_created rename to transactions_legacy_user_created_idx");
+        jdbcTemplate.execute("alter table transactions_legacy rename constraint transactions_pkey to transactions_legacy_pkey");
+        jdbcTemplate.execute("create table transactions (like transactions_legacy including defaults including constraints) "
+                + "partition by range (created_at)");
+        // the partition key has to be part of the primary key, ids still come from transactions_seq alone
+        jdbcTemplate.execute("alter table transactions alter column created_at set not null");
+        jdbcTemplate.execute("alter table transactions add constraint transactions_pkey primary key (id, created_at)");
+        jdbcTemplate.execute("create index idx_transactions_user_created on transactions (user_id, created_at desc, id desc)");
+        for (var foreignKey : jdbcTemplate.queryForList(
+                "select conname::text as name, pg_get_constraintdef(oid) as definition from pg_constraint "
+                        + "where conrelid = 'transactions_legacy'::regclass and contype = 'f'")) {
+            jdbcTemplate.execute("alter table transactions add constraint " + foreignKey.get("name") + " " + foreignKey.get("definition"));
+        }
+        createDefaultPartition();
+        Timestamp oldest = jdbcTemplate.queryForObject("select min(created_at) from transactions_legacy", Timestamp.class);
+        var month = oldest != null ? YearMonth.from(oldest.toLocalDateTime()) : currentMonth();
+        for (; month.isBefore(currentMonth()); month = month.plusMonths(1)) {
+            createPartition(month);
+        }
+        createAhead(currentMonth());
+    }
+
+    // each batch is deleted from the legacy table and inserted into the partitions in a transaction of its own,
+    // so WAL and locks stay bounded and a restart carries on with the rows still left; history reads miss the
+    // rows not moved yet until this finishes
+    private void moveLegacyRows() {
+        if(!jdbcTemplate.queryForObject("select to_regclass(?) is not null", Boolean.class, LEGACY_TABLE)){
+            return;
+        }
+        final long started = System.nanoTime();
+        long moved = 0;
+        long after = Long.MIN_VALUE;
+        while (true) {
+            final long from = after;
+            var batch = transactionTemplate.execute(status -> jdbcTemplate.queryForMap(
+                    "with batch as (delete from " + LEGACY_TABLE + " where id in (select id from " + LEGACY_TABLE
+                            + " where id > ? order by id limit ?) returning *), "
+                            + "moved as (insert into transactions select * from batch returning id) "
+                            + "select count(*) as moved_rows, max(id) as last_id from moved",
+                    from, migrationBatchSize));
+            long rows = ((Number) batch.get("moved_rows")).longValue();
+            if(rows == 0){
+                break;
+            }
+            moved += rows;
+            after = ((Number) batch.get("last_id")).longValue();
+            log.info("Moved {} transactions into monthly partitions so far", moved);
+        }
+        jdbcTemplate.execute("drop table " + LEGACY_TABLE);
+        log.info("Moved {} transactions into monthly partitions in {} ms",
+                moved, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void createAhead(YearMonth month) {
+        for (int i = 0; i <= monthsAhead; i++) {
+            createPartition(month.plusMonths(i));
+        }
+    }
+
+    private void createDefaultPartition() {
+        jdbcTemplate.execute("create table if not exists " + DEFAULT_PARTITION + " partition of transactions default");
+    }
+
+    private void createPartition(YearMonth month) {
+        String partition = partitionName(month);
+        if(jdbcTemplate.queryForObject("select to_regclass(?) is not null", Boolean.class, partition)){
+            return;
+        }
+        // the default partition may already hold rows of the month, they move over before the month is attached
+        jdbcTemplate.execute("create table " + partition + " (like transactions including defaults including constraints)");
+        int moved = jdbcTemplate.update("with moved as (delete from " + DEFAULT_PARTITION + " where " + inMonth(month)
+                + " returning *) insert into " + partition + " select * from moved");
+        jdbcTemplate.execute("alter table transactions attach partition " + partition + " " + bounds(month));
+        if(moved > 0){
+            log.info("Moved {} transactions of {} out of the default partition", moved, month);
+        }
+    }
+
+    // rows only land in the default partition when the months ahead ran out, that means maintenance fell behind
+    private void rescueDefaultRows() {
+        List<Timestamp> months = jdbcTemplate.queryForList(
+                "select distinct date_trunc('month', created_at) from " + DEFAULT_PARTITION, Timestamp.class);
+        if(months.isEmpty()){
+            return;
+        }
+        Long rows = jdbcTemplate.queryForObject("select count(*) from " + DEFAULT_PARTITION, Long.class);
+        defaultRows.increment(rows);
+        log.warn("{} transactions were written to the default partition, creating partitions for {} months",
+                rows, months.size());
+        for (Timestamp month : months) {
+            createPartition(YearMonth.from(month.toLocalDateTime()));
+        }
+    }
+
+    // the recipient search is a case-insensitive substring match, which only a trigram index can serve;
+    // created on the parent it covers every partition, including those created later
+    private void createRecipientIndex() {
+        jdbcTemplate.execute("create extension if not exists pg_trgm");
+        jdbcTemplate.execute("create index if not exists idx_transactions_recipient_trgm on transactions "
+                + "using gin (lower(recipient) gin_trgm_ops)");
+    }
+
+    private static String bounds(YearMonth month) {
+        return "for values from ('" + month.atDay(1) + "') to ('" + month.plusMonths(1).atDay(1) + "')";
+    }
+
+    private static String inMonth(YearMonth month) {
+        return "created_at >= '" + month.atDay(1) + "' and created_at < '" + month.plusMonths(1).atDay(1) + "'";
+    }
+
+    // the file is complete and on disk before the partition is dropped, a failed run is simply repeated
+    private void archive(String partition, YearMonth month) {
+        final long started = System.nanoTime();
+        final Path file = archiveDir.resolve(partition + ".tsv.gz");
+        final Path partial = archiveDir.resolve(partition + ".tsv.gz.partial");
+        long rows = transactionTemplate.execute(status -> {
+            // blocks writes to the month while it is copied, reads go on
+            jdbcTemplate.execute("lock table " + partition + " in share mode");
+            long copied = copyOut(partition, partial);
+            List<Integer> userIds = jdbcTemplate.queryForList(
+                    "select distinct user_id from " + partition + " where user_id is not null", Integer.class);
+            move(partial, file);
+            jdbcTemplate.execute("alter table transactions detach partition " + partition);
+            archiveRepository.save(TransactionArchive.builder()
+                    .partitionName(partition)
+                    .rangeStart(month.atDay(1))
+                    .rangeEnd(month.plusMonths(1).atDay(1))
+                    .path(file.toAbsolutePath().toString())
+                    .rowCount(copied)
+                    .userIds(userIds.toArray(Integer[]::new))
+                    .archivedAt(Instant.now())
+                    .build());
+            jdbcTemplate.execute("drop table " + partition);
+            return copied;
+        });
+        log.info("Archived {} transactions of {} to {} in {} ms",
+                rows, month, file, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    // sorted the way TransactionArchiveReader scans the file
+    private long copyOut(String partition, Path target) {
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            var copy = connection.unwrap(PGConnection.class).getCopyAPI();
+            try {
+                Files.createDirectories(target.getParent());
+                try (var out = new GZIPOutputStream(Files.newOutputStream(target))) {
+                    return copy.copyOut("copy (select " + ARCHIVE_COLUMNS + " from " + partition
+                            + " order by user_id, created_at desc, id desc) to stdout", out);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static void move(Path partial, Path file) {
+        try {
+            try (var channel = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "transactions_" + month.format(PARTITION_SUFFIX);
+    }
+
+    private static YearMonth currentMonth() {
+        return TransactionMonths.current();
+    }
+}
@@ -0,0 +1,76 @@
+package com.bnabd.bank.transaction;
+
+import com.bnabd.bank.rollup.SpendingRollupRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// every transaction row is written through here so the monthly spending rollups never drift from the rows
+@Component
+@RequiredArgsConstructor
+public class TransactionRecorder {
+    private static final Comparator<RollupKey> KEY_ORDER = Comparator.comparing(RollupKey::userId)
+            .thenComparing(RollupKey::month)
+            .thenComparing(RollupKey::type)
+            .thenComparing(RollupKey::slot);
+
+    private final TransactionRepository repository;
+    private final SpendingRollupRepository rollupRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(Transaction transaction) {
+        recordAll(List.of(transaction));
+    }
+
+    // rows and rollups commit together; rollup rows are upserted in key order so concurrent batches cannot deadlock
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordAll(Collection<Transaction> transactions) {
+        repository.saveAll(transactions);
+        Map<RollupKey, Totals> rollups = new TreeMap<>(KEY_ORDER);
+        Map<Integer, List<TransactionResponse>> byUser = new HashMap<>();
+        for (Transaction transaction : transactions) {
+            var totals = rollups.computeIfAbsent(keyOf(transaction), key -> new Totals());
+            totals.amount = totals.amount.add(transaction.getAmount() != null ? transaction.getAmount() : BigDecimal.ZERO);
+            totals.entries++;
+            byUser.computeIfAbsent(transaction.getUser().getId(), id -> new ArrayList<>()).add(toResponse(transaction));
+        }
+        rollups.forEach((key, totals) -> rollupRepository.add(
+                key.userId(), key.month(), key.type().name(), key.slot(), totals.amount, totals.entries));
+        // listeners only hear about it once the transaction has committed
+        eventPublisher.publishEvent(new TransactionsRecordedEvent(byUser));
+    }
+
+    private static TransactionResponse toResponse(Transaction transaction) {
+        return new TransactionResponse(transaction.getType(), transaction.getAmount(), transaction.getCreatedAt(),
+                transaction.getRecipient(), transaction.getDescription());
+    }
+
+    // a hot account's credits land on a random slot, the same way its balance does
+    private static RollupKey keyOf(Transaction transaction) {
+        var user = transaction.getUser();
+        int slot = user.hasBalanceSlots() ? ThreadLocalRandom.current().nextInt(user.getBalanceSlots()) : 0;
+        return new RollupKey(user.getId(), TransactionMonths.of(transaction.getCreatedAt()).atDay(1), transaction.getType(), slot);
+    }
+
+    private record RollupKey(Integer userId, LocalDate month, TransactionType type, int slot) {
+    }
+
+    private static final class Totals {
+        private BigDecimal amount = BigDecimal.ZERO;
+        private long entries;
+    }
+}
@@ -1,14 +1,46 @@
 package com.bnabd.bank.transaction;
 
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
-public interface TransactionRepository extends JpaRepository<Transaction, Integer> {
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
-    List<Transaction> findTop5ByUserIdOrderByCreatedAtDesc(Integer userId);
+public interface TransactionRepository extends JpaRepository<Transaction, Integer>, TransactionSearchRepository {
 
-    Page<Transaction> findByUserIdOrderByCreatedAtDesc(Integer userId, Pageable pageable);
+    // history reads select straight into DTOs, nothing is loaded into the persistence context
+
+    @Query("select new com.bnabd.bank.transaction.TransactionResponse(t.type, t.amount, t.createdAt, t.recipient, t.description) "
+            + "from Transaction t where t.user.id = :userId order by t.createdAt desc, t.id desc")
+    List<TransactionResponse> findResponsesByUserId(Integer userId, Limit limit);
+
+    @Query(value = "select new com.bnabd.bank.transaction.TransactionResponse(t.type, t.amount, t.createdAt, t.recipient, t.description) "
+            + "from Transaction t where t.user.id = :userId order by t.createdAt desc, t.id desc",
+            countQuery = "select count(t) from Transaction t where t.user.id = :userId")
+    Page<TransactionResponse> findResponsesByUserId(Integer userId, Pageable pageable);
+
+    @Query("select new com.bnabd.bank.transaction.TransactionHistoryRow(t.id, t.type, t.amount, t.createdAt, t.recipient, t.description) "
+            + "from Transaction t where t.user.id = :userId order by t.createdAt desc, t.id desc")
+    List<TransactionHistoryRow> findHistory(Integer userId, Limit limit);
+
+    // row comparison on (createdAt, id) keeps the order stable for rows created in the same instant
+    @Query("select new com.bnabd.bank.transaction.TransactionHistoryRow(t.id, t.type, t.amount, t.createdAt, t.recipient, t.description) "
+            + "from Transaction t where t.user.id = :userId and (t.createdAt, t.id) < (:createdAt, :id) "
+            + "order by t.createdAt desc, t.id desc")
+    List<TransactionHistoryRow> findHistoryBefore(Integer userId, LocalDateTime createdAt, Integer id, Limit limit);
+
+    // forward-only, fetched from the database 500 rows at a time
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new com.bnabd.bank.transaction.TransactionHistoryRow(t.id, t.type, t.amount, t.createdAt, t.recipient, t.description) "
+            + "from Transaction t where t.user.id = :userId and t.createdAt >= :from and t.createdAt < :to "
+            + "order by t.createdAt, t.id")
+    Stream<TransactionHistoryRow> streamHistory(Integer userId, LocalDateTime from, LocalDateTime to);
 }
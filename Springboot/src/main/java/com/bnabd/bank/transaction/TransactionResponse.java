@@ -1,6 +1,5 @@
 package com.bnabd.bank.transaction;
 
-import com.bnabd.bank.user.User;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -0,0 +1,10 @@
+package com.bnabd.bank.transaction;
+
+import java.time.Duration;
+import java.util.List;
+
+public interface TransactionSearchRepository {
+
+    List<TransactionHistoryRow> search(Integer userId, TransactionSearchRequest filters, TransactionCursor before,
+                                       int limit, Duration timeout);
+}
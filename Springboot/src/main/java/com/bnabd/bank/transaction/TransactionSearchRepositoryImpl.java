@@ -0,0 +1,72 @@
+package com.bnabd.bank.transaction;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hibernate.jpa.HibernateHints.HINT_TIMEOUT;
+
+// builds one query out of whichever filters are set, every variant walks idx_transactions_user_created
+// for the user in (createdAt, id) order and stops after the limit; a rare recipient can be looked up in
+// idx_transactions_recipient_trgm instead
+class TransactionSearchRepositoryImpl implements TransactionSearchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<TransactionHistoryRow> search(Integer userId, TransactionSearchRequest filters, TransactionCursor before,
+                                              int limit, Duration timeout) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        var query = cb.createQuery(TransactionHistoryRow.class);
+        Root<Transaction> t = query.from(Transaction.class);
+
+        List<Predicate> where = new ArrayList<>();
+        where.add(cb.equal(t.get("user").get("id"), userId));
+        if(filters.getType() != null && !filters.getType().isEmpty()){
+            where.add(t.get("type").in(filters.getType()));
+        }
+        if(filters.getFrom() != null){
+            where.add(cb.greaterThanOrEqualTo(t.get("createdAt"), filters.getFrom().atStartOfDay()));
+        }
+        if(filters.getTo() != null){
+            where.add(cb.lessThan(t.get("createdAt"), filters.getTo().plusDays(1).atStartOfDay()));
+        }
+        if(filters.getMinAmount() != null){
+            where.add(cb.greaterThanOrEqualTo(t.get("amount"), filters.getMinAmount()));
+        }
+        if(filters.getMaxAmount() != null){
+            where.add(cb.lessThanOrEqualTo(t.get("amount"), filters.getMaxAmount()));
+        }
+        if(filters.getRecipient() != null && !filters.getRecipient().isBlank()){
+            where.add(cb.like(cb.lower(t.get("recipient")), "%" + escapeLike(filters.getRecipient().toLowerCase()) + "%", '\\'));
+        }
+        if(before != null){
+            where.add(cb.or(
+                    cb.lessThan(t.<LocalDateTime>get("createdAt"), before.createdAt()),
+                    cb.and(cb.equal(t.get("createdAt"), before.createdAt()), cb.lessThan(t.get("id"), before.id()))));
+        }
+
+        query.select(cb.construct(TransactionHistoryRow.class,
+                        t.get("id"), t.get("type"), t.get("amount"), t.get("createdAt"), t.get("recipient"), t.get("description")))
+                .where(where.toArray(Predicate[]::new))
+                .orderBy(cb.desc(t.get("createdAt")), cb.desc(t.get("id")));
+        // JDBC timeouts are whole seconds and 0 means none, so a shorter or fractional one is rounded up
+        int timeoutSeconds = Math.toIntExact(Math.max(1, Math.ceilDiv(timeout.toMillis(), 1000)));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .setHint(HINT_TIMEOUT, timeoutSeconds)
+                .getResultList();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,28 @@
+package com.bnabd.bank.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+// every filter is optional, the ones given are combined with and
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransactionSearchRequest {
+    private List<TransactionType> type;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate from;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate to;
+    private BigDecimal minAmount;
+    private BigDecimal maxAmount;
+    // case-insensitive substring of the recipient
+    private String recipient;
+}
@@ -1,50 +1,138 @@
 package com.bnabd.bank.transaction;
 
+import com.bnabd.bank.rollup.SpendingRollupRepository;
+import com.bnabd.bank.rollup.SpendingSummary;
+import com.bnabd.bank.user.AccountNumbers;
 import com.bnabd.bank.user.User;
 import com.bnabd.bank.user.UserRepository;
 import com.bnabd.bank.user.UserService;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.ZoneId;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.bnabd.bank.transaction.TransactionType.*;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class TransactionService {
     private final TransactionRepository repository;
     private final UserRepository userRepository;
     private final UserService userService;
+    private final AccountLockManager lockManager;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionExporter exporter;
+    private final TransactionArchiveReader archiveReader;
+    private final TransactionRecorder recorder;
+    private final SpendingRollupRepository rollupRepository;
 
+    private static final int MAX_HISTORY_PAGE_SIZE = 100;
+    private static final LocalDateTime EXPORT_RANGE_START = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime EXPORT_RANGE_END = LocalDateTime.of(9999, 12, 31, 0, 0);
+
+    @Value("${application.transactions.batch.maximum-size}")
+    private int batchMaximumSize;
+    @Value("${application.transactions.search.timeout}")
+    private Duration searchTimeout;
+
+    @Transactional(readOnly = true)
     public List<TransactionResponse> getLast5Transactions(Integer userId) {
-        return repository.findTop5ByUserIdOrderByCreatedAtDesc(userId).stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+        return repository.findResponsesByUserId(userId, Limit.of(5));
     }
 
+    @Transactional(readOnly = true)
     public Page<TransactionResponse> getTransactionsWithPagination(Integer userId, int page, int size) {
-        return repository.findByUserIdOrderByCreatedAtDesc(userId, PageRequest.of(page, size))
-                .map(this::convertToResponse);
+        return repository.findResponsesByUserId(userId, PageRequest.of(page, size));
     }
 
-    private TransactionResponse convertToResponse(Transaction transaction) {
-        return TransactionResponse.builder()
-                .type(transaction.getType())
-                .amount(transaction.getAmount())
-                .createdAt(transaction.getCreatedAt())
-                .recipient(transaction.getRecipient())
-                .description(transaction.getDescription())
+    // keyset paging, every page is one index range scan no matter how deep it is
+    @Transactional(readOnly = true)
+    public TransactionHistoryResponse getTransactionHistory(Integer userId, String cursor, int size) {
+        int pageSize = Math.clamp(size, 1, MAX_HISTORY_PAGE_SIZE);
+        Limit limit = Limit.of(pageSize + 1);
+        List<TransactionHistoryRow> rows;
+        TransactionCursor after = null;
+        if(cursor == null || cursor.isBlank()){
+            rows = repository.findHistory(userId, limit);
+        }else{
+            after = TransactionCursor.decode(cursor);
+            rows = repository.findHistoryBefore(userId, after.createdAt(), after.id(), limit);
+        }
+        // archived months are older than anything still in the database, they continue where it runs out
+        if(rows.size() < limit.max()){
+            TransactionCursor from = rows.isEmpty() ? after : TransactionCursor.of(rows.get(rows.size() - 1));
+            rows = new ArrayList<>(rows);
+            rows.addAll(archiveReader.findHistory(userId, from, limit.max() - rows.size()));
+        }
+        boolean hasMore = rows.size() > pageSize;
+        List<TransactionHistoryRow> page = hasMore ? rows.subList(0, pageSize) : rows;
+        return TransactionHistoryResponse.builder()
+                .transactions(page.stream().map(TransactionHistoryRow::toResponse).collect(Collectors.toList()))
+                .nextCursor(hasMore ? TransactionCursor.of(page.get(pageSize - 1)).encode() : null)
                 .build();
     }
 
+    // totals per month and type, read from the rollups instead of the history
+    @Transactional(readOnly = true)
+    public List<SpendingSummary> getSpendingSummary(Integer userId, YearMonth from, YearMonth to) {
+        if(from.isAfter(to)){
+            throw new IllegalArgumentException("The start month is after the end month.");
+        }
+        return rollupRepository.findSummary(userId, from.atDay(1), to.atDay(1));
+    }
+
+    // one bounded query per call, covers the months still in the database and says so when the range goes further
+    @Transactional(readOnly = true)
+    public TransactionHistoryResponse search(Integer userId, TransactionSearchRequest filters, String cursor, int size) {
+        if(filters.getFrom() != null && filters.getTo() != null && filters.getFrom().isAfter(filters.getTo())){
+            throw new IllegalArgumentException("The start date is after the end date.");
+        }
+        if(filters.getMinAmount() != null && filters.getMaxAmount() != null
+                && filters.getMinAmount().compareTo(filters.getMaxAmount()) > 0){
+            throw new IllegalArgumentException("The minimum amount is above the maximum amount.");
+        }
+        int pageSize = Math.clamp(size, 1, MAX_HISTORY_PAGE_SIZE);
+        TransactionCursor after = cursor == null || cursor.isBlank() ? null : TransactionCursor.decode(cursor);
+        List<TransactionHistoryRow> rows = repository.search(userId, filters, after, pageSize + 1, searchTimeout);
+        boolean hasMore = rows.size() > pageSize;
+        List<TransactionHistoryRow> page = hasMore ? rows.subList(0, pageSize) : rows;
+        LocalDate archivedBefore = archiveReader.archivedUntil(userId)
+                .filter(until -> filters.getFrom() == null || filters.getFrom().isBefore(until))
+                .orElse(null);
+        return TransactionHistoryResponse.builder()
+                .transactions(page.stream().map(TransactionHistoryRow::toResponse).collect(Collectors.toList()))
+                .nextCursor(hasMore ? TransactionCursor.of(page.get(pageSize - 1)).encode() : null)
+                .archivedBefore(archivedBefore)
+                .build();
+    }
+
+    // runs after the controller has returned, on the async request thread
+    public StreamingResponseBody export(Integer userId, ExportFormat format, LocalDate from, LocalDate to) {
+        LocalDateTime start = from != null ? from.atStartOfDay() : EXPORT_RANGE_START;
+        LocalDateTime end = to != null ? to.plusDays(1).atStartOfDay() : EXPORT_RANGE_END;
+        return outputStream -> exporter.export(userId, start, end, format, outputStream);
+    }
+
+    @Transactional
     public void deposit(Transaction request, User user){
         var deposit = Transaction.builder()
                 .type(DEPOSIT)
@@ -54,9 +142,10 @@ public class TransactionService {
                 .description("Wpłacono " + request.getAmount() + " złotych.")
                 .build();
         userService.addBalance(user, request.getAmount());
-        repository.save(deposit);
+        recorder.record(deposit);
     }
 
+    @Transactional
     public void atmDeposit(Transaction request, User user){
         var deposit = Transaction.builder()
                 .type(ATM_DEPOSIT)
@@ -66,25 +155,265 @@ public class TransactionService {
                 .description("Wpłacono " + request.getAmount() + " złotych we wpłatomacie.")
                 .build();
         userService.addBalance(user, request.getAmount());
-        repository.save(deposit);
+        recorder.record(deposit);
     }
 
-    public ResponseEntity<?> transfer(User user, TransferRequest request) {
-        if(user.getBalance().compareTo(request.getAmount()) < 0){
-            return ResponseEntity.badRequest().body("Insufficient balance.");
-        }
-        if(request.getAccountNumberDest().length() != 26){
-            return ResponseEntity.badRequest().body("Incorrect acount number.");
+    // runner executes the transfer, possibly inside a transaction of its own such as an idempotency key's claim.
+    // The stripes are taken outside of it, so they cover the balance update up to the commit of whichever
+    // transaction the transfer ends up in
+    public ResponseEntity<?> transfer(User user, TransferRequest request,
+                                      Function<Supplier<ResponseEntity<?>>, ResponseEntity<?>> runner) {
+        String rejection = validateTransfer(request);
+        if(rejection != null){
+            return runner.apply(() -> ResponseEntity.badRequest().body(rejection));
         }
         Optional<User> userDestination = userRepository.findByAccountNumber(request.getAccountNumberDest());
+        String unknown = checkDestination(request.getAccountNumberDest(), userDestination);
+        if(unknown != null){
+            return runner.apply(() -> ResponseEntity.badRequest().body(unknown));
+        }
+        // only the sender's stripe, a credit is a single atomic update and the row order is kept by applyTransfer
+        try (var locks = lockManager.lock(user.getId())) {
+            return runner.apply(() -> transactionTemplate.execute(status -> applyTransfer(user, userDestination, request)));
+        }
+    }
+
+    private ResponseEntity<?> applyTransfer(User user, Optional<User> userDestination, TransferRequest request) {
+        // every transfer path locks _user rows in ascending id order, so a destination that sorts first is locked
+        // before the debit. Credits to a slotted account never touch its _user row; the flag may be stale,
+        // that only risks a deadlock the database resolves by failing the transfer
+        userDestination.filter(dest -> !dest.hasBalanceSlots() && dest.getId() < user.getId())
+                .ifPresent(dest -> userRepository.lockForBalanceUpdate(dest.getId()));
+        if(!userService.subtractBalance(user, request.getAmount())){
+            return ResponseEntity.badRequest().body("Insufficient balance.");
+        }
         userDestination.ifPresent(value -> userService.addBalance(value, request.getAmount()));
-        userService.subtractBalance(user, request.getAmount());
+        var rows = new ArrayList<Transaction>(2);
+        userDestination.ifPresent(value -> rows.add(receivedTransfer(user, value, request.getAmount())));
+        rows.add(sentTransfer(user, userDestination, request));
+        recorder.recordAll(rows);
+        return ResponseEntity.ok().build();
+    }
+
+    public ResponseEntity<?> transferBatch(User user, BatchTransferRequest request) {
+        List<TransferRequest> transfers = request.getTransfers();
+        if(transfers == null || transfers.isEmpty()){
+            return ResponseEntity.badRequest().body("No transfers given.");
+        }
+        if(transfers.size() > batchMaximumSize){
+            return ResponseEntity.badRequest().body("At most " + batchMaximumSize + " transfers can be sent at once.");
+        }
+        // one lookup for every destination instead of one per transfer
+        Set<String> accountNumbers = transfers.stream()
+                .map(TransferRequest::getAccountNumberDest)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, User> destinations = userRepository.findAllByAccountNumberIn(accountNumbers).stream()
+                .collect(Collectors.toMap(User::getAccountNumber, Function.identity()));
+
+        // destinations get no stripe, payouts to the same accounts would otherwise queue up behind each other
+        try (var locks = lockManager.lock(user.getId())) {
+            BatchTransferResponse response = transactionTemplate.execute(
+                    status -> applyTransferBatch(user, transfers, destinations, request.isAtomic()));
+            return request.isAtomic() && response.getRejected() > 0
+                    ? ResponseEntity.badRequest().body(response)
+                    : ResponseEntity.ok(response);
+        }
+    }
+
+    // callers hold the sender's stripe, so only credits can move its balance meanwhile
+    private BatchTransferResponse applyTransferBatch(User user, List<TransferRequest> transfers,
+                                                     Map<String, User> destinations, boolean atomic) {
+        BigDecimal available = userRepository.findBalanceById(user.getId());
+        BigDecimal total = BigDecimal.ZERO;
+        var results = new ArrayList<BatchTransferResult>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            TransferRequest transfer = transfers.get(i);
+            String rejection = validateTransfer(transfer);
+            if(rejection == null){
+                rejection = checkDestination(transfer.getAccountNumberDest(),
+                        Optional.ofNullable(destinations.get(transfer.getAccountNumberDest())));
+            }
+            if(rejection == null && total.add(transfer.getAmount()).compareTo(available) > 0){
+                rejection = "Insufficient balance.";
+            }
+            if(rejection == null){
+                total = total.add(transfer.getAmount());
+            }
+            results.add(BatchTransferResult.builder()
+                    .index(i)
+                    .accountNumberDest(transfer.getAccountNumberDest())
+                    .amount(transfer.getAmount())
+                    .status(rejection == null ? BatchTransferStatus.COMPLETED : BatchTransferStatus.REJECTED)
+                    .message(rejection)
+                    .build());
+        }
+        int rejected = (int) results.stream().filter(result -> result.getStatus() == BatchTransferStatus.REJECTED).count();
+        if(atomic && rejected > 0){
+            results.stream()
+                    .filter(result -> result.getStatus() == BatchTransferStatus.COMPLETED)
+                    .forEach(result -> result.setStatus(BatchTransferStatus.NOT_APPLIED));
+            return batchResponse(true, 0, rejected, BigDecimal.ZERO, results);
+        }
+        // one update per destination account, however many transfers it receives
+        Map<Integer, BigDecimal> credits = new HashMap<>();
+        var rows = new ArrayList<Transaction>();
+        for (BatchTransferResult result : results) {
+            if(result.getStatus() != BatchTransferStatus.COMPLETED){
+                continue;
+            }
+            TransferRequest transfer = transfers.get(result.getIndex());
+            Optional<User> userDestination = Optional.ofNullable(destinations.get(transfer.getAccountNumberDest()));
+            rows.add(sentTransfer(user, userDestination, transfer));
+            userDestination.ifPresent(dest -> {
+                credits.merge(dest.getId(), transfer.getAmount(), BigDecimal::add);
+                rows.add(receivedTransfer(user, dest, transfer.getAmount()));
+            });
+        }
 
+        // rows are touched in ascending id order, as on the other transfer paths
+        Map<Integer, User> accounts = destinations.values().stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        var touched = new TreeSet<Integer>(credits.keySet());
+        if(total.signum() > 0){
+            touched.add(user.getId());
+        }
+        for (Integer accountId : touched) {
+            if(accountId.equals(user.getId()) && total.signum() > 0 && !userService.subtractBalance(user, total)){
+                throw new IllegalStateException("Balance changed while the batch was applied.");
+            }
+            BigDecimal credit = credits.get(accountId);
+            if(credit != null){
+                userService.addBalance(accounts.get(accountId), credit);
+            }
+        }
+        recorder.recordAll(rows);
+        return batchResponse(atomic, results.size() - rejected, rejected, total, results);
+    }
+
+    // called by the pipeline writers, one transaction for a whole micro-batch
+    public List<TransferOutcome> applyQueuedTransfers(List<QueuedTransfer> transfers) {
+        try {
+            return applyLocked(transfers);
+        } catch (RuntimeException e) {
+            // a concurrent debit or a busy account spoiled the batch, retry each transfer in its own transaction
+            log.debug("Queued batch of {} failed, applying one by one: {}", transfers.size(), e.getMessage());
+            return transfers.stream().map(this::applyQueuedTransfer).collect(Collectors.toList());
+        }
+    }
+
+    private TransferOutcome applyQueuedTransfer(QueuedTransfer transfer) {
+        try {
+            return applyLocked(List.of(transfer)).get(0);
+        } catch (RuntimeException e) {
+            log.warn("Queued transfer {} failed", transfer.id(), e);
+            return TransferOutcome.of(transfer, TransferState.FAILED, "Transfer could not be completed.");
+        }
+    }
+
+    // the writers take the senders' stripes like transfer and transferBatch, the rows themselves are
+    // touched in ascending id order on every path, so the database never sees a cycle
+    private List<TransferOutcome> applyLocked(List<QueuedTransfer> transfers) {
+        Map<String, User> destinations = userRepository.findAllByAccountNumberIn(
+                        transfers.stream().map(QueuedTransfer::accountNumberDest).collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(User::getAccountNumber, Function.identity()));
+        var accountIds = new HashSet<Integer>();
+        transfers.forEach(transfer -> accountIds.add(transfer.userId()));
+        try (var locks = lockManager.lock(accountIds)) {
+            return transactionTemplate.execute(status -> applyQueuedBatch(transfers, destinations));
+        }
+    }
+
+    private List<TransferOutcome> applyQueuedBatch(List<QueuedTransfer> transfers, Map<String, User> destinations) {
+        Map<Integer, User> accounts = userRepository.findAllById(
+                        transfers.stream().map(QueuedTransfer::userId).collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        destinations.values().forEach(dest -> accounts.putIfAbsent(dest.getId(), dest));
+
+        // the sources' stripes are held, so nothing else debits them and reading once is enough
+        Map<Integer, BigDecimal> available = new HashMap<>();
+        Map<Integer, BigDecimal> debits = new HashMap<>();
+        Map<Integer, BigDecimal> credits = new HashMap<>();
+        var outcomes = new ArrayList<TransferOutcome>(transfers.size());
+        var rows = new ArrayList<Transaction>();
+        for (QueuedTransfer transfer : transfers) {
+            User user = accounts.get(transfer.userId());
+            if(user == null){
+                outcomes.add(TransferOutcome.of(transfer, TransferState.REJECTED, "Account not found."));
+                continue;
+            }
+            Optional<User> userDestination = Optional.ofNullable(destinations.get(transfer.accountNumberDest()));
+            String unknown = checkDestination(transfer.accountNumberDest(), userDestination);
+            if(unknown != null){
+                outcomes.add(TransferOutcome.of(transfer, TransferState.REJECTED, unknown));
+                continue;
+            }
+            BigDecimal balance = available.computeIfAbsent(user.getId(), userRepository::findBalanceById);
+            BigDecimal debited = debits.getOrDefault(user.getId(), BigDecimal.ZERO).add(transfer.amount());
+            if(debited.compareTo(balance) > 0){
+                outcomes.add(TransferOutcome.of(transfer, TransferState.REJECTED, "Insufficient balance."));
+                continue;
+            }
+            debits.put(user.getId(), debited);
+            var request = new TransferRequest(transfer.accountNumberDest(), transfer.amount());
+            rows.add(sentTransfer(user, userDestination, request));
+            userDestination.ifPresent(dest -> {
+                credits.merge(dest.getId(), transfer.amount(), BigDecimal::add);
+                rows.add(receivedTransfer(user, dest, transfer.amount()));
+            });
+            outcomes.add(TransferOutcome.of(transfer, TransferState.COMPLETED, null));
+        }
+
+        // rows are touched in ascending id order, which also keeps credits to slotted accounts from deadlocking
+        var touched = new TreeSet<Integer>(debits.keySet());
+        touched.addAll(credits.keySet());
+        for (Integer accountId : touched) {
+            BigDecimal debit = debits.get(accountId);
+            if(debit != null && !userService.subtractBalance(accounts.get(accountId), debit)){
+                throw new IllegalStateException("Balance of account " + accountId + " changed while the batch was applied.");
+            }
+            BigDecimal credit = credits.get(accountId);
+            if(credit != null){
+                userService.addBalance(accounts.get(accountId), credit);
+            }
+        }
+        recorder.recordAll(rows);
+        return outcomes;
+    }
+
+    // local checks only, nothing here touches the database
+    String validateTransfer(TransferRequest transfer) {
+        if(!AccountNumbers.isWellFormed(transfer.getAccountNumberDest())){
+            return "Incorrect account number.";
+        }
+        if(transfer.getAmount() == null || transfer.getAmount().signum() <= 0){
+            return "Amount must be positive.";
+        }
+        return null;
+    }
+
+    // legacy numbers have no checksum but keep working as long as they belong to an account here,
+    // the destination lookup every transfer does anyway tells
+    private static String checkDestination(String accountNumber, Optional<User> destination) {
+        return destination.isEmpty() && !AccountNumbers.isValid(accountNumber) ? "Incorrect account number." : null;
+    }
+
+    private BatchTransferResponse batchResponse(boolean atomic, int completed, int rejected,
+                                                BigDecimal total, List<BatchTransferResult> results) {
+        return BatchTransferResponse.builder()
+                .atomic(atomic)
+                .completed(completed)
+                .rejected(rejected)
+                .totalAmount(total)
+                .results(results)
+                .build();
+    }
+
+    private Transaction sentTransfer(User user, Optional<User> userDestination, TransferRequest request) {
         String recipientDescription = userDestination
                 .map(dest -> dest.getFirstname() + " " + dest.getLastname() + ", numer konta: " + dest.getAccountNumber())
                 .orElse("numer konta: " + request.getAccountNumberDest());
-
-        var transferSent = Transaction.builder()
+        return Transaction.builder()
                 .type(TransactionType.TRANSFER)
                 .amount(request.getAmount())
                 .user(user)
@@ -92,19 +421,16 @@ public class TransactionService {
                 .recipient(recipientDescription)
                 .description("Przelano " + request.getAmount() + " złotych na konto: " + request.getAccountNumberDest())
                 .build();
+    }
 
-        if(userDestination.isPresent()){
-            var transferReceive = Transaction.builder()
-                    .type(TransactionType.USER_TRANSFER)
-                    .amount(request.getAmount())
-                    .user(userDestination.get())
-                    .createdAt(LocalDateTime.now(ZoneId.of("UTC+2")))
-                    .description("Otrzymano " + request.getAmount() + " złotych od "
-                            + user.getFirstname() + " " + user.getLastname() + ", numer konta:" + user.getAccountNumber())
-                    .build();
-            repository.save(transferReceive);
-        }
-        repository.save(transferSent);
-        return ResponseEntity.ok().build();
+    private Transaction receivedTransfer(User user, User destination, BigDecimal amount) {
+        return Transaction.builder()
+                .type(TransactionType.USER_TRANSFER)
+                .amount(amount)
+                .user(destination)
+                .createdAt(LocalDateTime.now(ZoneId.of("UTC+2")))
+                .description("Otrzymano " + amount + " złotych od "
+                        + user.getFirstname() + " " + user.getLastname() + ", numer konta:" + user.getAccountNumber())
+                .build();
     }
-}
\ No newline at end of file
+}
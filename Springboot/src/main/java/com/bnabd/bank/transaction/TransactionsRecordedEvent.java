@@ -0,0 +1,8 @@
+package com.bnabd.bank.transaction;
+
+import java.util.List;
+import java.util.Map;
+
+// published inside the transaction that wrote the rows, keyed by the id of the account they belong to
+public record TransactionsRecordedEvent(Map<Integer, List<TransactionResponse>> byUser) {
+}
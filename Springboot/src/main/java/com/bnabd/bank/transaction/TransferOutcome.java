@@ -0,0 +1,12 @@
+package com.bnabd.bank.transaction;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.UUID;
+
+public record TransferOutcome(UUID id, @JsonIgnore Integer userId, TransferState state, String message) {
+
+    public static TransferOutcome of(QueuedTransfer transfer, TransferState state, String message) {
+        return new TransferOutcome(transfer.id(), transfer.userId(), state, message);
+    }
+}
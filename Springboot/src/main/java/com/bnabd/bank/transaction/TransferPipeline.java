@@ -0,0 +1,117 @@
+package com.bnabd.bank.transaction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// queued transfers, partitioned by source account with a single writer per partition,
+// so one account's transfers are applied in the order they were accepted without taking account locks
+@Slf4j
+@Component
+public class TransferPipeline implements DisposableBean {
+
+    private final TransactionService transactionService;
+    private final List<BlockingQueue<QueuedTransfer>> partitions;
+    private final List<Thread> writers;
+    private final int batchSize;
+    private final Cache<UUID, TransferOutcome> outcomes;
+    private final Timer batchTime;
+    private volatile boolean running = true;
+
+    public TransferPipeline(
+            TransactionService transactionService,
+            @Value("${application.transactions.pipeline.partitions}") int partitionCount,
+            @Value("${application.transactions.pipeline.queue-capacity}") int queueCapacity,
+            @Value("${application.transactions.pipeline.batch-size}") int batchSize,
+            @Value("${application.transactions.pipeline.status-ttl}") Duration statusTtl,
+            @Value("${application.transactions.pipeline.status-maximum-size}") long statusMaximumSize,
+            MeterRegistry meterRegistry
+    ) {
+        this.transactionService = transactionService;
+        this.batchSize = batchSize;
+        this.outcomes = Caffeine.newBuilder()
+                .maximumSize(statusMaximumSize)
+                .expireAfterWrite(statusTtl)
+                .build();
+        this.batchTime = Timer.builder("transfer.pipeline.batch").register(meterRegistry);
+        this.partitions = new ArrayList<>(partitionCount);
+        this.writers = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            var queue = new ArrayBlockingQueue<QueuedTransfer>(queueCapacity);
+            partitions.add(queue);
+            writers.add(Thread.ofPlatform().name("transfer-writer-" + i).daemon().start(() -> drain(queue)));
+        }
+        Gauge.builder("transfer.pipeline.queue.depth", partitions, queues -> queues.stream().mapToInt(BlockingQueue::size).sum())
+                .register(meterRegistry);
+    }
+
+    public TransferOutcome submit(Integer userId, TransferRequest request) {
+        var transfer = new QueuedTransfer(UUID.randomUUID(), userId, request.getAccountNumberDest(), request.getAmount());
+        var queued = TransferOutcome.of(transfer, TransferState.QUEUED, null);
+        // recorded first so a writer that finishes immediately cannot be overwritten by the QUEUED entry
+        outcomes.put(transfer.id(), queued);
+        if(!running || !partitionOf(userId).offer(transfer)){
+            outcomes.invalidate(transfer.id());
+            throw new TransferPipelineFullException();
+        }
+        return queued;
+    }
+
+    public Optional<TransferOutcome> status(Integer userId, UUID id) {
+        return Optional.ofNullable(outcomes.getIfPresent(id))
+                .filter(outcome -> outcome.userId().equals(userId));
+    }
+
+    private BlockingQueue<QueuedTransfer> partitionOf(Integer userId) {
+        return partitions.get(Math.floorMod(userId * 0x9E3779B9, partitions.size()));
+    }
+
+    private void drain(BlockingQueue<QueuedTransfer> queue) {
+        var batch = new ArrayList<QueuedTransfer>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                QueuedTransfer first = queue.poll(1, TimeUnit.SECONDS);
+                if(first == null){
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                batchTime.record(() -> transactionService.applyQueuedTransfers(batch)
+                        .forEach(outcome -> outcomes.put(outcome.id(), outcome)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Transfer batch of {} could not be applied", batch.size(), e);
+                batch.forEach(transfer -> outcomes.put(transfer.id(),
+                        TransferOutcome.of(transfer, TransferState.FAILED, "Transfer could not be completed.")));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // stops taking new transfers and lets the writers empty their queues
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+}
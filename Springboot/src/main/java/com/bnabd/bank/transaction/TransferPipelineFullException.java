@@ -0,0 +1,8 @@
+package com.bnabd.bank.transaction;
+
+public class TransferPipelineFullException extends RuntimeException {
+
+    public TransferPipelineFullException() {
+        super("Too many transfers are waiting, try again shortly.");
+    }
+}
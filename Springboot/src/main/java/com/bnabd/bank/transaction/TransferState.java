@@ -0,0 +1,8 @@
+package com.bnabd.bank.transaction;
+
+public enum TransferState {
+    QUEUED,
+    COMPLETED,
+    REJECTED,
+    FAILED
+}
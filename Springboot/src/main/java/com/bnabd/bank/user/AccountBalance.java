@@ -0,0 +1,6 @@
+package com.bnabd.bank.user;
+
+import java.math.BigDecimal;
+
+public record AccountBalance(Integer id, BigDecimal balance) {
+}
@@ -0,0 +1,54 @@
+package com.bnabd.bank.user;
+
+import java.math.BigInteger;
+
+// Polish NRB account numbers: 2 IBAN check digits, the bank's 8-digit sort code and a 16-digit account part
+public final class AccountNumbers {
+    public static final int LENGTH = 26;
+
+    private static final String BANK_CODE = "10205558";
+    // "PL" as IBAN digits, P = 25 and L = 21
+    private static final String COUNTRY_DIGITS = "2521";
+    private static final BigInteger ACCOUNT_SPACE = BigInteger.TEN.pow(16);
+    // odd and not a multiple of 5, so multiplying by it permutes the account part instead of counting up
+    private static final BigInteger SCRAMBLE = BigInteger.valueOf(6_364_136_223_846_793L);
+
+    private AccountNumbers() {
+    }
+
+    // distinct sequence values below 10^16 always give distinct account numbers
+    public static String fromSequence(long value) {
+        long account = BigInteger.valueOf(value).multiply(SCRAMBLE).mod(ACCOUNT_SPACE).longValue();
+        String bban = BANK_CODE + String.format("%016d", account);
+        int check = 98 - mod97(bban + COUNTRY_DIGITS + "00");
+        return String.format("%02d", check) + bban;
+    }
+
+    // purely local, a mistyped number is rejected without a database round trip
+    public static boolean isValid(String accountNumber) {
+        return isWellFormed(accountNumber)
+                && mod97(accountNumber.substring(2) + COUNTRY_DIGITS + accountNumber.substring(0, 2)) == 1;
+    }
+
+    // 26 digits, which is all that accounts opened before numbers carried a checksum have
+    public static boolean isWellFormed(String accountNumber) {
+        if(accountNumber == null || accountNumber.length() != LENGTH){
+            return false;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            char c = accountNumber.charAt(i);
+            if(c < '0' || c > '9'){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mod97(String digits) {
+        int remainder = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            remainder = (remainder * 10 + (digits.charAt(i) - '0')) % 97;
+        }
+        return remainder;
+    }
+}
@@ -0,0 +1,38 @@
+package com.bnabd.bank.user;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+// part of a hot account's balance, credits land on a random slot so they do not queue on the _user row
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "balance_slot")
+@IdClass(BalanceSlot.Key.class)
+public class BalanceSlot {
+    @Id
+    @Column(name = "account_id")
+    private Integer accountId;
+
+    @Id
+    private Integer slot;
+
+    @Column(nullable = false)
+    private BigDecimal balance;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Integer accountId;
+        private Integer slot;
+    }
+}
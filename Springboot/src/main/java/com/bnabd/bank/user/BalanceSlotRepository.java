@@ -0,0 +1,52 @@
+package com.bnabd.bank.user;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+
+public interface BalanceSlotRepository extends JpaRepository<BalanceSlot, BalanceSlot.Key> {
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            insert into balance_slot (account_id, slot, balance) values (:accountId, :slot, :amount)
+            on conflict (account_id, slot) do update set balance = balance_slot.balance + excluded.balance
+            """, nativeQuery = true)
+    void credit(Integer accountId, int slot, BigDecimal amount);
+
+    // empties every slot of the account into its main balance in one statement, 0 when they held nothing
+    @Transactional
+    @Modifying
+    @Query(value = """
+            with drained as (
+                select account_id, slot, balance from balance_slot
+                where account_id = :accountId and balance <> 0
+                for update
+            ), cleared as (
+                update balance_slot s set balance = 0
+                from drained d
+                where s.account_id = d.account_id and s.slot = d.slot
+                returning d.balance
+            )
+            update _user set balance = balance + (select sum(balance) from cleared)
+            where id = :accountId and exists (select 1 from cleared)
+            """, nativeQuery = true)
+    int drainIntoBalance(Integer accountId);
+
+    // removes the slots and books what they held together with the new count, nothing can fall in between
+    @Transactional
+    @Modifying
+    @Query(value = """
+            with folded as (
+                delete from balance_slot where account_id = :accountId
+                returning balance
+            )
+            update _user set balance = balance + (select coalesce(sum(balance), 0) from folded),
+                balance_slots = :balanceSlots
+            where id = :accountId
+            """, nativeQuery = true)
+    int foldIntoBalance(Integer accountId, int balanceSlots);
+}
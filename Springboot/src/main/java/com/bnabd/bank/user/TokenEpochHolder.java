@@ -0,0 +1,7 @@
+package com.bnabd.bank.user;
+
+public interface TokenEpochHolder {
+
+  // bumped on every login and refresh, access tokens issued for older epochs stop being valid
+  Integer getTokenEpoch();
+}
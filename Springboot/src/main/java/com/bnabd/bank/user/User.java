@@ -25,7 +25,7 @@ import java.util.List;
 @AllArgsConstructor
 @Entity
 @Table(name = "_user")
-public class User implements UserDetails {
+public class User implements UserDetails, TokenEpochHolder {
 
   @Id
   @GeneratedValue
@@ -35,7 +35,11 @@ public class User implements UserDetails {
   private String pesel;
   private LocalDate dob;
   private String email;
+  // written on insert only, afterwards it changes solely through UserRepository's balance updates
+  @Column(updatable = false)
   private BigDecimal balance;
+  // unique, data.sql creates ux_user_account_number once no two users share a number
+  @Column(length = AccountNumbers.LENGTH)
   private String accountNumber;
 
   private String password;
@@ -48,6 +52,21 @@ public class User implements UserDetails {
 
   private Boolean hasLoan;
 
+  // only UserRepository.incrementTokenEpoch moves it, saving a user loaded earlier must not put an older epoch back
+  @Builder.Default
+  @Column(columnDefinition = "integer not null default 0", updatable = false)
+  private Integer tokenEpoch = 0;
+
+  // 0 keeps the whole balance on this row, otherwise credits are spread over that many BalanceSlot rows;
+  // only BalanceSlotRepository.foldIntoBalance changes it, together with the slots themselves
+  @Builder.Default
+  @Column(columnDefinition = "integer not null default 0", updatable = false)
+  private Integer balanceSlots = 0;
+
+  public boolean hasBalanceSlots() {
+    return balanceSlots != null && balanceSlots > 0;
+  }
+
   @Override
   public Collection<? extends GrantedAuthority> getAuthorities() {
     return role.getAuthorities();
@@ -0,0 +1,57 @@
+package com.bnabd.bank.user;
+
+import lombok.ToString;
+import lombok.Value;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.List;
+
+// immutable view of a user, this is what ends up in the security context
+@Value
+public class UserPrincipal implements UserDetails, TokenEpochHolder {
+
+  Integer id;
+  String email;
+  @ToString.Exclude
+  String password;
+  Role role;
+  Integer tokenEpoch;
+  List<SimpleGrantedAuthority> authorities;
+
+  public static UserPrincipal from(User user) {
+    return new UserPrincipal(
+        user.getId(),
+        user.getEmail(),
+        user.getPassword(),
+        user.getRole(),
+        user.getTokenEpoch(),
+        List.copyOf(user.getRole().getAuthorities())
+    );
+  }
+
+  @Override
+  public String getUsername() {
+    return email;
+  }
+
+  @Override
+  public boolean isAccountNonExpired() {
+    return true;
+  }
+
+  @Override
+  public boolean isAccountNonLocked() {
+    return true;
+  }
+
+  @Override
+  public boolean isCredentialsNonExpired() {
+    return true;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+}
@@ -0,0 +1,65 @@
+package com.bnabd.bank.user;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+@Component
+public class UserPrincipalCache {
+
+  private final UserRepository repository;
+  // loads run here rather than inside the cache's map lock, where a virtual thread waiting on JDBC would pin its carrier;
+  // Spring's task executor runs virtual threads exactly when requests do, and Spring shuts it down
+  private final Executor loader;
+
+  @Value("${application.security.principal-cache.maximum-size}")
+  private long maximumSize;
+  @Value("${application.security.principal-cache.time-to-live}")
+  private Duration timeToLive;
+
+  private AsyncCache<String, UserPrincipal> principals;
+
+  public UserPrincipalCache(UserRepository repository,
+                            @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor loader) {
+    this.repository = repository;
+    this.loader = loader;
+  }
+
+  @PostConstruct
+  void init() {
+    principals = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(timeToLive)
+        .executor(loader)
+        .buildAsync();
+  }
+
+  public UserPrincipal get(String email) {
+    final UserPrincipal principal;
+    try {
+      principal = principals.get(email, key -> repository.findByEmail(key)
+          .map(UserPrincipal::from)
+          .orElse(null)).join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException cause ? cause : e;
+    }
+    if (principal == null) {
+      throw new UsernameNotFoundException("User not found");
+    }
+    return principal;
+  }
+
+  // call after the change is saved, a load still in flight is dropped with the entry and never cached
+  public void evict(String email) {
+    principals.synchronous().invalidate(email);
+  }
+}
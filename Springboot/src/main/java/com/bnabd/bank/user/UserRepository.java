@@ -1,10 +1,56 @@
 package com.bnabd.bank.user;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface UserRepository extends JpaRepository<User, Integer> {
 
   Optional<User> findByEmail(String email);
   Optional<User> findByAccountNumber(String accountNumber);
+  List<User> findAllByAccountNumberIn(Collection<String> accountNumbers);
+  boolean existsByAccountNumber(String accountNumber);
+
+  @Query(value = "select nextval('account_number_seq')", nativeQuery = true)
+  long nextAccountNumber();
+
+  // main balance plus whatever sits in the account's balance slots
+  @Query("select u.balance + coalesce((select sum(s.balance) from BalanceSlot s where s.accountId = u.id), 0) "
+      + "from User u where u.id = :id")
+  BigDecimal findBalanceById(Integer id);
+
+  @Query("select new com.bnabd.bank.user.AccountBalance(u.id, "
+      + "u.balance + coalesce((select sum(s.balance) from BalanceSlot s where s.accountId = u.id), 0)) "
+      + "from User u where u.id in :ids")
+  List<AccountBalance> findBalancesByIdIn(Collection<Integer> ids);
+
+  // key share does not block balance updates, only a change of the slot count
+  @Query(value = "select balance_slots from _user where id = :id for key share", nativeQuery = true)
+  int lockBalanceSlots(Integer id);
+
+  @Query(value = "select id from _user where id = :id for update", nativeQuery = true)
+  Integer lockForUpdate(Integer id);
+
+  // the lock a balance update takes anyway, so it neither blocks nor waits for slot credits
+  @Query(value = "select id from _user where id = :id for no key update", nativeQuery = true)
+  Integer lockForBalanceUpdate(Integer id);
+
+  @Transactional
+  @Modifying
+  @Query("update User u set u.balance = u.balance + :amount where u.id = :id")
+  int increaseBalance(Integer id, BigDecimal amount);
+
+  @Transactional
+  @Modifying
+  @Query("update User u set u.balance = u.balance - :amount where u.id = :id and u.balance >= :amount")
+  int decreaseBalanceIfSufficient(Integer id, BigDecimal amount);
+
+  @Transactional
+  @Query(value = "update _user set token_epoch = token_epoch + 1 where id = :id returning token_epoch", nativeQuery = true)
+  Integer incrementTokenEpoch(Integer id);
 }
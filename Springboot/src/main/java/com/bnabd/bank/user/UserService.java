@@ -4,9 +4,11 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.security.Principal;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 @Service
@@ -15,10 +17,13 @@ public class UserService {
 
     private final PasswordEncoder passwordEncoder;
     private final UserRepository repository;
+    private final UserPrincipalCache principalCache;
+    private final BalanceSlotRepository slotRepository;
 
     public void changePassword(ChangePasswordRequest request, Principal connectedUser) {
 
-        var user = (User) ((UsernamePasswordAuthenticationToken) connectedUser).getPrincipal();
+        var principal = (UserPrincipal) ((UsernamePasswordAuthenticationToken) connectedUser).getPrincipal();
+        var user = repository.findById(principal.getId()).orElseThrow();
 
         // check if the current password is correct
         if (!passwordEncoder.matches(request.getCurrentPassword(), user.getPassword())) {
@@ -34,9 +39,11 @@ public class UserService {
 
         // save the new password
         repository.save(user);
+        principalCache.evict(user.getEmail());
     }
     public void updateDetails(UserDTO request, Principal connectedUser){
-        var user = (User) ((UsernamePasswordAuthenticationToken) connectedUser).getPrincipal();
+        var principal = (UserPrincipal) ((UsernamePasswordAuthenticationToken) connectedUser).getPrincipal();
+        var user = repository.findById(principal.getId()).orElseThrow();
         if(request.getFirstname() != null)
             user.setFirstname(request.getFirstname());
         if(request.getLastname() != null)
@@ -44,13 +51,44 @@ public class UserService {
         if(request.getDob() != null)
             user.setDob(request.getDob());
         repository.save(user);
+        principalCache.evict(user.getEmail());
     }
+    // single-column updates in the database, the balance on the entity is not touched
     public void addBalance(User user, BigDecimal amount){
-        user.setBalance(user.getBalance().add(amount));
-        repository.save(user);
+        // a credit to the main balance is right whatever the slot count is by now
+        if(!user.hasBalanceSlots()){
+            repository.increaseBalance(user.getId(), amount);
+            return;
+        }
+        // the count read under the key share lock stays put until this transaction ends,
+        // so a slot credited here is never one that changeBalanceSlots has already folded away
+        int balanceSlots = repository.lockBalanceSlots(user.getId());
+        if(balanceSlots > 0){
+            slotRepository.credit(user.getId(), ThreadLocalRandom.current().nextInt(balanceSlots), amount);
+        }else{
+            repository.increaseBalance(user.getId(), amount);
+        }
     }
-    public void subtractBalance(User user, BigDecimal amount){
-        user.setBalance(user.getBalance().subtract(amount));
-        repository.save(user);
+    // returns false and changes nothing when the balance is lower than the amount
+    public boolean subtractBalance(User user, BigDecimal amount){
+        if(repository.decreaseBalanceIfSufficient(user.getId(), amount) == 1){
+            return true;
+        }
+        // the main balance alone may be short while the slots still hold enough,
+        // the user may be stale so the slots are checked whatever it says
+        if(slotRepository.drainIntoBalance(user.getId()) == 1){
+            return repository.decreaseBalanceIfSufficient(user.getId(), amount) == 1;
+        }
+        return false;
+    }
+    public BigDecimal balanceOf(User user){
+        return user.hasBalanceSlots() ? repository.findBalanceById(user.getId()) : user.getBalance();
+    }
+    // waits for slot credits in flight and keeps new ones out until the new count is committed
+    @Transactional
+    public void changeBalanceSlots(User user, int balanceSlots){
+        repository.lockForUpdate(user.getId());
+        // a separate statement, so it sees the slot credits committed while the lock was awaited
+        slotRepository.foldIntoBalance(user.getId(), balanceSlots);
     }
 }
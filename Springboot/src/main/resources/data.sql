@@ -0,0 +1,33 @@
+-- transactions and loans used to take their ids from identity columns, the entities now use pooled sequences
+alter table transactions alter column id drop identity if exists;
+alter table loans alter column id drop identity if exists;
+
+-- move the sequences past ids handed out by the old identity columns, a no-op once they are ahead
+select setval('transactions_seq', (select max(id) from transactions))
+where (select max(id) from transactions) > (select last_value from transactions_seq);
+select setval('loans_seq', (select max(id) from loans))
+where (select max(id) from loans) > (select last_value from loans_seq);
+
+-- source of the 16-digit account part of new account numbers
+create sequence if not exists account_number_seq;
+
+-- the double-entry ledger was withdrawn before anything read it, its tables go with it
+drop table if exists ledger_posting;
+drop table if exists balance_checkpoint;
+
+-- transfers map destinations by account number, so two users holding one number must stop the boot
+-- instead of leaving the index missing; the body is quoted so the script splitter keeps it whole
+do '
+declare
+  duplicated text;
+begin
+  if to_regclass(''ux_user_account_number'') is null then
+    select string_agg(account_number, '', '') into duplicated
+    from (select account_number from _user where account_number is not null
+          group by account_number having count(*) > 1) held_twice;
+    if duplicated is not null then
+      raise exception ''Account numbers held by more than one user: %. Renumber them before starting.'', duplicated;
+    end if;
+  end if;
+end';
+create unique index if not exists ux_user_account_number on _user (account_number);
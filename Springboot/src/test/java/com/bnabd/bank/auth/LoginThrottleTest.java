@@ -0,0 +1,96 @@
+package com.bnabd.bank.auth;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LoginThrottleTest {
+
+  private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+  private LoginThrottle throttle;
+
+  @BeforeEach
+  void setUp() {
+    throttle = new LoginThrottle();
+    ReflectionTestUtils.setField(throttle, "emailCapacity", 3);
+    ReflectionTestUtils.setField(throttle, "emailRefillPeriod", Duration.ofMinutes(15));
+    ReflectionTestUtils.setField(throttle, "addressCapacity", 5);
+    ReflectionTestUtils.setField(throttle, "addressRefillPeriod", Duration.ofMinutes(1));
+    ReflectionTestUtils.setField(throttle, "maximumSize", 1000L);
+    ReflectionTestUtils.setField(throttle, "idleTimeout", Duration.ofHours(1));
+    throttle.init();
+  }
+
+  @Test
+  void bucketStartsFullAndRunsDry() {
+    var bucket = new LoginThrottle.TokenBucket(3, Duration.ofSeconds(3), 0);
+    assertThat(bucket.tryConsume(0)).isZero();
+    assertThat(bucket.tryConsume(0)).isZero();
+    assertThat(bucket.tryConsume(0)).isZero();
+    assertThat(bucket.tryConsume(0)).isEqualTo(SECOND);
+  }
+
+  @Test
+  void bucketRefillsOverTime() {
+    var bucket = new LoginThrottle.TokenBucket(2, Duration.ofSeconds(2), 0);
+    bucket.tryConsume(0);
+    bucket.tryConsume(0);
+    assertThat(bucket.tryConsume(SECOND / 2)).isEqualTo(SECOND / 2);
+    assertThat(bucket.tryConsume(SECOND)).isZero();
+    // never holds more than its capacity, however long it was idle
+    assertThat(bucket.tryConsume(100 * SECOND)).isZero();
+    assertThat(bucket.tryConsume(100 * SECOND)).isZero();
+    assertThat(bucket.tryConsume(100 * SECOND)).isPositive();
+  }
+
+  @Test
+  void waitNanosDoesNotTakeTokens() {
+    var bucket = new LoginThrottle.TokenBucket(1, Duration.ofSeconds(1), 0);
+    assertThat(bucket.waitNanos(0)).isZero();
+    assertThat(bucket.waitNanos(0)).isZero();
+    assertThat(bucket.tryConsume(0)).isZero();
+    assertThat(bucket.waitNanos(0)).isEqualTo(SECOND);
+  }
+
+  @Test
+  void refundGivesTheTokenBack() {
+    var bucket = new LoginThrottle.TokenBucket(1, Duration.ofSeconds(1), 0);
+    bucket.tryConsume(0);
+    bucket.refund();
+    assertThat(bucket.tryConsume(0)).isZero();
+    bucket.refund();
+    bucket.refund();
+    assertThat(bucket.tryConsume(0)).isZero();
+    assertThat(bucket.tryConsume(0)).isPositive();
+  }
+
+  @Test
+  void emailIsThrottledAcrossAddresses() {
+    for (int i = 0; i < 3; i++) {
+      throttle.check("Victim@Bank.pl", "10.0.0." + i);
+    }
+    assertThatThrownBy(() -> throttle.check("victim@bank.pl", "10.0.0.9"))
+        .isInstanceOf(LoginThrottledException.class);
+  }
+
+  @Test
+  void attemptsRefusedByAddressLeaveTheEmailBudgetAlone() {
+    for (int i = 0; i < 5; i++) {
+      throttle.check("attacker" + i + "@bank.pl", "10.0.0.1");
+    }
+    for (int i = 0; i < 10; i++) {
+      assertThatThrownBy(() -> throttle.check("victim@bank.pl", "10.0.0.1"))
+          .isInstanceOf(LoginThrottledException.class);
+    }
+    // the owner signing in from elsewhere still has every attempt
+    for (int i = 0; i < 3; i++) {
+      throttle.check("victim@bank.pl", "192.168.1.1");
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.bnabd.bank.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BoundedPasswordEncoderTest {
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final CountDownLatch started = new CountDownLatch(1);
+  private BoundedPasswordEncoder encoder;
+
+  @BeforeEach
+  void setUp() {
+    encoder = new BoundedPasswordEncoder(new BlockingEncoder(), 1, 1, new SimpleMeterRegistry());
+  }
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    encoder.destroy();
+  }
+
+  @Test
+  void rejectsWhenThePoolAndQueueAreFull() throws InterruptedException {
+    saturate();
+    assertThatThrownBy(() -> encoder.encode("secret"))
+        .isInstanceOf(PasswordHashingUnavailableException.class);
+  }
+
+  @Test
+  void rejectionForAnUnknownUserIsNotWrapped() throws InterruptedException {
+    var provider = new DaoAuthenticationProvider(encoder);
+    provider.setUserDetailsService(email -> {
+      if (email.equals("known@test.local")) {
+        return User.withUsername(email).password("hash").roles("USER").build();
+      }
+      throw new UsernameNotFoundException("User not found");
+    });
+    saturate();
+
+    // the unknown email still costs a hash, so it hits the full pool the same way a known one does
+    assertThatThrownBy(() -> provider.authenticate(new UsernamePasswordAuthenticationToken("unknown@test.local", "secret")))
+        .isExactlyInstanceOf(PasswordHashingUnavailableException.class);
+    assertThatThrownBy(() -> provider.authenticate(new UsernamePasswordAuthenticationToken("known@test.local", "secret")))
+        .isExactlyInstanceOf(PasswordHashingUnavailableException.class);
+  }
+
+  @Test
+  void messageDoesNotAssumeASignIn() {
+    assertThat(new PasswordHashingUnavailableException().getMessage()).doesNotContainIgnoringCase("sign");
+  }
+
+  // one hash running and one queued
+  private void saturate() throws InterruptedException {
+    CompletableFuture.runAsync(() -> encoder.encode("first"));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    CompletableFuture.runAsync(() -> encoder.encode("second"));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!queueIsFull() && System.nanoTime() < deadline) {
+      Thread.onSpinWait();
+    }
+  }
+
+  private boolean queueIsFull() {
+    var executor = (ThreadPoolExecutor) ReflectionTestUtils.getField(encoder, "executor");
+    return executor.getQueue().remainingCapacity() == 0;
+  }
+
+  private final class BlockingEncoder implements PasswordEncoder {
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "hash";
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+      encode(rawPassword);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package com.bnabd.bank.idempotency;
+
+import com.bnabd.bank.user.Role;
+import com.bnabd.bank.user.User;
+import com.bnabd.bank.user.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// runs against the configured Postgres, the key has to hold across threads and failed attempts
+@SpringBootTest
+class IdempotencyServiceTest {
+
+    @Autowired
+    private IdempotencyService idempotency;
+    @Autowired
+    private IdempotencyRepository repository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User account;
+
+    @BeforeEach
+    void setUp() {
+        account = userRepository.save(User.builder()
+                .firstname("Idempotency")
+                .lastname("Test")
+                .email("idempotency-" + UUID.randomUUID() + "@test.local")
+                .balance(BigDecimal.ZERO)
+                .hasLoan(false)
+                .role(Role.USER)
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("delete from idempotency_key where user_id = ?", account.getId());
+        userRepository.deleteById(account.getId());
+    }
+
+    @Test
+    void concurrentRetriesApplyTheMovementOnce() throws Exception {
+        String key = UUID.randomUUID().toString();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            var attempts = new ArrayList<CompletableFuture<ResponseEntity<?>>>();
+            for (int i = 0; i < 8; i++) {
+                attempts.add(CompletableFuture.supplyAsync(() -> {
+                    await(start);
+                    return idempotency.execute(account.getId(), key, "deposit|1", () -> {
+                        runs.incrementAndGet();
+                        userRepository.increaseBalance(account.getId(), BigDecimal.ONE);
+                        return ResponseEntity.ok().build();
+                    });
+                }, executor));
+            }
+            start.countDown();
+            for (var attempt : attempts) {
+                assertThat(attempt.get().getStatusCode()).isEqualTo(HttpStatus.OK);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(runs).hasValue(1);
+        assertThat(userRepository.findBalanceById(account.getId())).isEqualByComparingTo(BigDecimal.ONE);
+    }
+
+    @Test
+    void failedAttemptLeavesNeitherTheMovementNorTheKey() {
+        String key = UUID.randomUUID().toString();
+        assertThatThrownBy(() -> idempotency.execute(account.getId(), key, "deposit|5", () -> {
+            userRepository.increaseBalance(account.getId(), BigDecimal.valueOf(5));
+            throw new IllegalStateException("died after the balance changed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(userRepository.findBalanceById(account.getId())).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(repository.findById(new IdempotencyRecord.Key(account.getId(), key))).isEmpty();
+
+        // the client's retry with the same key goes through
+        ResponseEntity<?> retry = idempotency.execute(account.getId(), key, "deposit|5", () -> {
+            userRepository.increaseBalance(account.getId(), BigDecimal.valueOf(5));
+            return ResponseEntity.ok().build();
+        });
+        assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(userRepository.findBalanceById(account.getId())).isEqualByComparingTo(BigDecimal.valueOf(5));
+    }
+
+    @Test
+    void replayReturnsTheStoredJsonBody() {
+        String key = UUID.randomUUID().toString();
+        idempotency.execute(account.getId(), key, "transfer|x|1",
+                () -> ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("state", "COMPLETED")));
+
+        IdempotencyRecord stored = repository.findById(new IdempotencyRecord.Key(account.getId(), key)).orElseThrow();
+        assertThat(stored.getResponseStatus()).isEqualTo(202);
+        assertThat(stored.getResponseContentType()).isEqualTo(MediaType.APPLICATION_JSON_VALUE);
+        assertThat(stored.getResponseBody()).isEqualTo("{\"state\":\"COMPLETED\"}");
+
+        ResponseEntity<?> replayed = idempotency.execute(account.getId(), key, "transfer|x|1", () -> {
+            throw new AssertionError("a repeated key must not run again");
+        });
+        assertThat(replayed.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(replayed.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_JSON);
+        assertThat(replayed.getBody()).isEqualTo("{\"state\":\"COMPLETED\"}");
+    }
+
+    @Test
+    void plainTextBodiesKeepTheirType() {
+        String key = UUID.randomUUID().toString();
+        idempotency.execute(account.getId(), key, "transfer|x|1", () -> ResponseEntity.badRequest().body("Insufficient balance."));
+
+        ResponseEntity<?> replayed = idempotency.execute(account.getId(), key, "transfer|x|1", ResponseEntity.ok()::build);
+        assertThat(replayed.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(replayed.getHeaders().getContentType()).isEqualTo(MediaType.TEXT_PLAIN);
+        assertThat(replayed.getBody()).isEqualTo("Insufficient balance.");
+    }
+
+    @Test
+    void keyReusedForAnotherRequestIsRefused() {
+        String key = UUID.randomUUID().toString();
+        idempotency.execute(account.getId(), key, "deposit|1", () -> ResponseEntity.ok().build());
+        assertThatThrownBy(() -> idempotency.execute(account.getId(), key, "deposit|2", () -> ResponseEntity.ok().build()))
+                .isInstanceOf(IdempotencyKeyReusedException.class);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
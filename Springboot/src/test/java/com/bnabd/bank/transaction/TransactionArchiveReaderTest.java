@@ -0,0 +1,164 @@
+package com.bnabd.bank.transaction;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TransactionArchiveReaderTest {
+
+    @TempDir
+    Path archiveDir;
+
+    private TransactionArchiveRepository repository;
+    private TransactionArchiveReader reader;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(TransactionArchiveRepository.class);
+        reader = new TransactionArchiveReader(repository);
+        ReflectionTestUtils.setField(reader, "cacheMaximumRows", 1000L);
+        ReflectionTestUtils.setField(reader, "cacheExpireAfterAccess", Duration.ofMinutes(1));
+        reader.init();
+    }
+
+    @Test
+    void unescapesCopyTextFormat() {
+        assertThat(TransactionArchiveReader.unescape("\\N")).isNull();
+        assertThat(TransactionArchiveReader.unescape("")).isEmpty();
+        assertThat(TransactionArchiveReader.unescape("plain text")).isEqualTo("plain text");
+        assertThat(TransactionArchiveReader.unescape("a\\tb\\nc\\rd")).isEqualTo("a\tb\nc\rd");
+        assertThat(TransactionArchiveReader.unescape("C:\\\\temp")).isEqualTo("C:\\temp");
+        assertThat(TransactionArchiveReader.unescape("\\b\\f\\v")).isEqualTo("\b\f\u000B");
+        // "\N" inside a value is not null, only a whole field is
+        assertThat(TransactionArchiveReader.unescape("a\\\\N")).isEqualTo("a\\N");
+    }
+
+    @Test
+    void parsesARowAndConvertsItsTimestamp() {
+        var row = TransactionArchiveReader.toRow(
+                "17\tTRANSFER\t125.50\t2024-03-01 12:30:00.25\tJan Kowalski\tPrzelano\\t125.50\t4".split("\t", -1));
+        assertThat(row.id()).isEqualTo(17);
+        assertThat(row.type()).isEqualTo(TransactionType.TRANSFER);
+        assertThat(row.amount()).isEqualByComparingTo("125.50");
+        assertThat(row.createdAt()).isEqualTo(fromUtc("2024-03-01T12:30:00.25"));
+        assertThat(row.recipient()).isEqualTo("Jan Kowalski");
+        assertThat(row.description()).isEqualTo("Przelano\t125.50");
+    }
+
+    @Test
+    void parsesNullColumns() {
+        var row = TransactionArchiveReader.toRow("3\t\\N\t\\N\t2024-03-01 00:00:00\t\\N\t\\N\t4".split("\t", -1));
+        assertThat(row.type()).isNull();
+        assertThat(row.amount()).isNull();
+        assertThat(row.recipient()).isNull();
+        assertThat(row.description()).isNull();
+    }
+
+    @Test
+    void readsOnlyTheUsersBlock() throws IOException {
+        Path file = archive("transactions_2024_03.tsv.gz",
+                line(1, "2024-03-20 10:00:00", 3),
+                line(2, "2024-03-21 10:00:00", 4),
+                line(3, "2024-03-20 10:00:00", 4),
+                line(4, "2024-03-02 10:00:00", 4),
+                line(5, "2024-03-25 10:00:00", 5),
+                "6\tDEPOSIT\t1\t2024-03-01 00:00:00\t\\N\t\\N\t\\N");
+        assertThat(TransactionArchiveReader.read(file, 4)).extracting(TransactionHistoryRow::id).containsExactly(2, 3, 4);
+        assertThat(TransactionArchiveReader.read(file, 7)).isEmpty();
+    }
+
+    @Test
+    void pagesAcrossMonthsWithTheCursor() throws IOException {
+        Path april = archive("transactions_2024_04.tsv.gz",
+                line(10, "2024-04-10 08:00:00", 4),
+                line(9, "2024-04-03 08:00:00", 4));
+        Path march = archive("transactions_2024_03.tsv.gz",
+                line(8, "2024-03-20 08:00:00", 4),
+                line(7, "2024-03-20 08:00:00", 4),
+                line(6, "2024-03-02 08:00:00", 4));
+        when(repository.findHoldingUser(eq(4), any(LocalDate.class))).thenReturn(List.of(
+                TransactionArchive.builder().path(april.toString()).build(),
+                TransactionArchive.builder().path(march.toString()).build()));
+
+        var first = reader.findHistory(4, null, 3);
+        assertThat(first).extracting(TransactionHistoryRow::id).containsExactly(10, 9, 8);
+
+        // 7 shares its timestamp with 8 and still comes next
+        var second = reader.findHistory(4, TransactionCursor.of(first.get(2)), 3);
+        assertThat(second).extracting(TransactionHistoryRow::id).containsExactly(7, 6);
+
+        assertThat(reader.findHistory(4, TransactionCursor.of(second.get(1)), 3)).isEmpty();
+    }
+
+    @Test
+    void laterPagesComeFromTheCache() throws IOException {
+        Path march = archive("transactions_2024_03.tsv.gz",
+                line(2, "2024-03-20 08:00:00", 4),
+                line(1, "2024-03-02 08:00:00", 4));
+        when(repository.findHoldingUser(eq(4), any(LocalDate.class))).thenReturn(List.of(
+                TransactionArchive.builder().path(march.toString()).build()));
+
+        var first = reader.findHistory(4, null, 1);
+        Files.delete(march);
+        assertThat(reader.findHistory(4, TransactionCursor.of(first.get(0)), 1))
+                .extracting(TransactionHistoryRow::id).containsExactly(1);
+    }
+
+    @Test
+    void exportsTheRangeOldestFirst() throws IOException {
+        Path march = archive("transactions_2024_03.tsv.gz",
+                line(3, "2024-03-20 08:00:00", 4),
+                line(2, "2024-03-10 08:00:00", 4),
+                line(1, "2024-03-02 08:00:00", 4));
+        Path april = archive("transactions_2024_04.tsv.gz",
+                line(5, "2024-04-10 08:00:00", 4),
+                line(4, "2024-04-03 08:00:00", 4));
+        when(repository.findHoldingUserBetween(eq(4), any(LocalDate.class), any(LocalDate.class))).thenReturn(List.of(
+                TransactionArchive.builder().path(march.toString()).build(),
+                TransactionArchive.builder().path(april.toString()).build()));
+
+        List<TransactionHistoryRow> rows = new ArrayList<>();
+        reader.forEachInRange(4, fromUtc("2024-03-10T08:00:00"), fromUtc("2024-04-10T08:00:00"), rows::add);
+        assertThat(rows).extracting(TransactionHistoryRow::id).containsExactly(2, 3, 4);
+    }
+
+    private Path archive(String name, String... lines) throws IOException {
+        Path file = archiveDir.resolve(name);
+        try (var out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            for (String line : lines) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return file;
+    }
+
+    // columns in the order TransactionPartitionJob copies them out
+    private static String line(int id, String createdAt, int userId) {
+        return id + "\tDEPOSIT\t" + BigDecimal.TEN + "\t" + createdAt + "\t\\N\tWpłata " + id + "\t" + userId;
+    }
+
+    private static LocalDateTime fromUtc(String createdAt) {
+        return LocalDateTime.parse(createdAt).atOffset(ZoneOffset.UTC).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+    }
+}
@@ -0,0 +1,51 @@
+package com.bnabd.bank.transaction;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransactionCursorTest {
+
+    @Test
+    void roundTripsThroughItsEncoding() {
+        var cursor = new TransactionCursor(LocalDateTime.of(2024, 5, 17, 13, 45, 12, 123_456_000), 98765);
+        assertThat(TransactionCursor.decode(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void keepsWholeSecondsAndMidnight() {
+        var cursor = new TransactionCursor(LocalDateTime.of(2024, 1, 1, 0, 0), 1);
+        assertThat(TransactionCursor.decode(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void rowsWithTheSameTimestampGetDifferentCursors() {
+        LocalDateTime createdAt = LocalDateTime.of(2024, 5, 17, 13, 45);
+        assertThat(new TransactionCursor(createdAt, 1).encode()).isNotEqualTo(new TransactionCursor(createdAt, 2).encode());
+    }
+
+    @Test
+    void encodingIsUrlSafe() {
+        String encoded = new TransactionCursor(LocalDateTime.of(2024, 5, 17, 13, 45, 12, 999_999_999), Integer.MAX_VALUE)
+                .encode();
+        assertThat(encoded).matches("[A-Za-z0-9_-]+");
+    }
+
+    @Test
+    void rejectsCursorsItDidNotIssue() {
+        assertThatThrownBy(() -> TransactionCursor.decode("not base64!")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TransactionCursor.decode(encode("2024-05-17T13:45"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TransactionCursor.decode(encode("yesterday|5"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TransactionCursor.decode(encode("2024-05-17T13:45|five"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TransactionCursor.decode("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
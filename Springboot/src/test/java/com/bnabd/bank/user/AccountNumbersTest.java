@@ -0,0 +1,75 @@
+package com.bnabd.bank.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccountNumbersTest {
+
+    @Test
+    void generatedNumbersCarryValidCheckDigits() {
+        for (long value = 1; value <= 1000; value++) {
+            String accountNumber = AccountNumbers.fromSequence(value);
+            assertThat(accountNumber).hasSize(AccountNumbers.LENGTH);
+            assertThat(accountNumber.substring(2, 10)).isEqualTo("10205558");
+            assertThat(AccountNumbers.isValid(accountNumber)).isTrue();
+        }
+    }
+
+    @Test
+    void distinctSequenceValuesGiveDistinctNumbers() {
+        var seen = new HashSet<String>();
+        for (long value = 1; value <= 10_000; value++) {
+            assertThat(seen.add(AccountNumbers.fromSequence(value))).isTrue();
+        }
+    }
+
+    @Test
+    void knownNrbIsValid() {
+        // PL61 1090 1014 0000 0712 1981 2874, the usual NRB example
+        assertThat(AccountNumbers.isValid("61109010140000071219812874")).isTrue();
+    }
+
+    @Test
+    void singleDigitTyposAreRejected() {
+        String accountNumber = AccountNumbers.fromSequence(42);
+        for (int i = 0; i < accountNumber.length(); i++) {
+            char digit = accountNumber.charAt(i);
+            char typo = digit == '9' ? '0' : (char) (digit + 1);
+            String mistyped = accountNumber.substring(0, i) + typo + accountNumber.substring(i + 1);
+            assertThat(AccountNumbers.isValid(mistyped)).as(mistyped).isFalse();
+        }
+    }
+
+    @Test
+    void adjacentTranspositionsAreRejected() {
+        String accountNumber = AccountNumbers.fromSequence(7);
+        for (int i = 0; i + 1 < accountNumber.length(); i++) {
+            if(accountNumber.charAt(i) == accountNumber.charAt(i + 1)){
+                continue;
+            }
+            String swapped = accountNumber.substring(0, i) + accountNumber.charAt(i + 1) + accountNumber.charAt(i)
+                    + accountNumber.substring(i + 2);
+            assertThat(AccountNumbers.isValid(swapped)).as(swapped).isFalse();
+        }
+    }
+
+    @Test
+    void malformedNumbersAreRejected() {
+        assertThat(AccountNumbers.isValid(null)).isFalse();
+        assertThat(AccountNumbers.isValid("")).isFalse();
+        assertThat(AccountNumbers.isValid("6110901014000007121981287")).isFalse();
+        assertThat(AccountNumbers.isValid("611090101400000712198128744")).isFalse();
+        assertThat(AccountNumbers.isValid("61 09010140000071219812874")).isFalse();
+    }
+
+    @Test
+    void legacyNumbersAreWellFormedWithoutChecksum() {
+        assertThat(AccountNumbers.isWellFormed("12345678901234567890123456")).isTrue();
+        assertThat(AccountNumbers.isValid("12345678901234567890123456")).isFalse();
+        assertThat(AccountNumbers.isWellFormed("1234567890123456789012345a")).isFalse();
+        assertThat(AccountNumbers.isWellFormed(null)).isFalse();
+    }
+}
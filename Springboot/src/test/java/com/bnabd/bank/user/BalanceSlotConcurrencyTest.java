@@ -0,0 +1,103 @@
+package com.bnabd.bank.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// runs against the configured Postgres, slot credits and slot count changes race on purpose
+@SpringBootTest
+class BalanceSlotConcurrencyTest {
+    private static final int CREDITORS = 8;
+    private static final int CREDITS_EACH = 150;
+
+    @Autowired
+    private UserRepository repository;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User account;
+
+    @BeforeEach
+    void setUp() {
+        account = repository.save(User.builder()
+                .firstname("Slot")
+                .lastname("Test")
+                .email("slots-" + UUID.randomUUID() + "@test.local")
+                .balance(BigDecimal.ZERO)
+                .hasLoan(false)
+                .role(Role.USER)
+                .balanceSlots(4)
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("delete from balance_slot where account_id = ?", account.getId());
+        repository.deleteById(account.getId());
+    }
+
+    @Test
+    void noCreditIsLostWhileTheSlotCountChanges() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CREDITORS + 2);
+        try {
+            var creditors = new ArrayList<CompletableFuture<Void>>();
+            for (int i = 0; i < CREDITORS; i++) {
+                // every creditor keeps the entity from before the count changes, as transfers do
+                creditors.add(CompletableFuture.runAsync(() -> {
+                    for (int j = 0; j < CREDITS_EACH; j++) {
+                        transactionTemplate.executeWithoutResult(
+                                status -> userService.addBalance(account, BigDecimal.ONE));
+                    }
+                }, executor));
+            }
+            AtomicInteger debited = new AtomicInteger();
+            CompletableFuture<Void> debitor = CompletableFuture.runAsync(() -> {
+                for (int j = 0; j < 200; j++) {
+                    Boolean done = transactionTemplate.execute(
+                            status -> userService.subtractBalance(account, BigDecimal.ONE));
+                    if(Boolean.TRUE.equals(done)){
+                        debited.incrementAndGet();
+                    }
+                }
+            }, executor);
+            CompletableFuture<Void> resizer = CompletableFuture.runAsync(() -> {
+                int round = 0;
+                while (creditors.stream().anyMatch(creditor -> !creditor.isDone())) {
+                    userService.changeBalanceSlots(account, round++ % 2 == 0 ? 0 : 4);
+                }
+            }, executor);
+            CompletableFuture.allOf(creditors.toArray(CompletableFuture[]::new)).get();
+            debitor.get();
+            resizer.get();
+
+            BigDecimal expected = BigDecimal.valueOf(CREDITORS * CREDITS_EACH - debited.get());
+            assertThat(repository.findBalanceById(account.getId())).isEqualByComparingTo(expected);
+
+            userService.changeBalanceSlots(account, 0);
+            Integer leftInSlots = jdbcTemplate.queryForObject(
+                    "select count(*) from balance_slot where account_id = ?", Integer.class, account.getId());
+            assertThat(leftInSlots).isZero();
+            assertThat(repository.findById(account.getId()).orElseThrow().getBalance()).isEqualByComparingTo(expected);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}